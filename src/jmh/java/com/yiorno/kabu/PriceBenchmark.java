@@ -0,0 +1,57 @@
+package com.yiorno.kabu;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * カブ価の計算のベンチマーク（DBアクセスなし）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PriceBenchmark {
+
+    private Random random;
+    private Settings settings;
+    private int price;
+
+    @Setup
+    public void setup() {
+        random = new Random(42);
+        settings = Settings.from(new YamlConfiguration());
+        price = 100;
+    }
+
+    @Benchmark
+    public int newPeriodPrice() {
+        return RenewPrice.newPeriodPrice(random);
+    }
+
+    @Benchmark
+    public int[] dailyPrice() {
+        int[] next = RenewPrice.dailyPrice(random, price);
+        price = next[0];
+        return next;
+    }
+
+    @Benchmark
+    public int intradayPrice() {
+        price = RenewPrice.intradayPrice(random, settings, price, 100);
+        return price;
+    }
+}
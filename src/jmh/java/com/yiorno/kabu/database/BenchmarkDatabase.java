@@ -0,0 +1,88 @@
+package com.yiorno.kabu.database;
+
+import com.yiorno.kabu.Settings;
+import com.yiorno.kabu.util.UuidUtil;
+import com.zaxxer.hikari.HikariConfig;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.Plugin;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * ベンチマーク用の組み込みDB（H2 の MySQLモード）
+ * テーブルは本番と同じ {@link SchemaMigrator} の移行で作成する
+ */
+final class BenchmarkDatabase {
+
+    private BenchmarkDatabase() {
+    }
+
+    /**
+     * 接続プールを作成し、テーブルと players 人分の保有数を用意する
+     */
+    static DatabaseManager open(String name, int players) throws SQLException {
+        return open(name, players, plugin(), config -> config.setMaximumPoolSize(8));
+    }
+
+    /**
+     * 接続プールの設定を変えて作成する（負荷試験用）
+     */
+    static DatabaseManager open(String name, int players, Plugin plugin, Consumer<HikariConfig> pool) throws SQLException {
+        Settings settings = Settings.from(plugin.getConfig());
+        DatabaseManager database = new DatabaseManager(plugin, () -> settings);
+
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl("jdbc:h2:mem:" + name + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+        pool.accept(config);
+        database.initialize(config);
+
+        new SchemaMigrator(plugin, database).migrate();
+        try (Connection conn = database.getConnection()) {
+            insertPlayers(conn, players);
+        }
+        database.reloadPriceSnapshot();
+        return database;
+    }
+
+    /**
+     * i 番目のプレイヤーの UUID
+     */
+    static UUID player(int i) {
+        return new UUID(0x4b616275L, i);
+    }
+
+    private static void insertPlayers(Connection conn, int players) throws SQLException {
+        String query = "INSERT INTO kabu_players (uuid, period_id, kabu_amount, cost_basis) VALUES (?, 1, ?, ?)";
+        try (PreparedStatement stmt = conn.prepareStatement(query)) {
+            for (int i = 0; i < players; i++) {
+                UuidUtil.bind(stmt, 1, player(i));
+                stmt.setInt(2, 1000);
+                stmt.setLong(3, 100_000);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    /**
+     * 空の設定を持つプラグイン
+     */
+    static Plugin plugin() {
+        return plugin(new YamlConfiguration());
+    }
+
+    /**
+     * 指定した設定を getConfig で返すプラグイン（ログは警告以上だけ出す）
+     */
+    static Plugin plugin(YamlConfiguration config) {
+        Logger logger = Logger.getLogger("KabuBenchmark");
+        logger.setLevel(Level.WARNING);
+        return StandalonePlugin.create(logger, config, null);
+    }
+}
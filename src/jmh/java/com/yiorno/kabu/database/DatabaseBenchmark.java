@@ -0,0 +1,106 @@
+package com.yiorno.kabu.database;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 保有数・カブ価の読み込みと売買の反映のベンチマーク
+ * 組み込みの H2（MySQLモード）に対して本番と同じ DatabaseManager / HoldingsCache を通す
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseBenchmark {
+
+    @Param({ "10000" })
+    public int players;
+
+    private DatabaseManager database;
+    private HoldingsCache holdings;
+    private List<UUID> online;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        database = BenchmarkDatabase.open("bench" + System.nanoTime(), players);
+        holdings = new HoldingsCache(BenchmarkDatabase.plugin(), database, new Leaderboard());
+
+        // 先頭の100人はログイン中としてキャッシュに載せておく
+        online = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            UUID uuid = BenchmarkDatabase.player(i);
+            holdings.load(uuid);
+            online.add(uuid);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    private UUID randomPlayer() {
+        return BenchmarkDatabase.player(ThreadLocalRandom.current().nextInt(players));
+    }
+
+    @Benchmark
+    public PriceSnapshot priceSnapshot() {
+        return database.getPriceSnapshot();
+    }
+
+    @Benchmark
+    public int cachedHoldings() {
+        return holdings.get(online.get(ThreadLocalRandom.current().nextInt(online.size())));
+    }
+
+    @Benchmark
+    public Position storedPosition() {
+        return database.getPosition(randomPlayer());
+    }
+
+    @Benchmark
+    public Map<UUID, Integer> onlineHoldingsBatch() {
+        return database.getPlayerKabuBatch(online);
+    }
+
+    /**
+     * 100カブ買ってすぐに売る（保有数は変わらないので繰り返しても条件が同じ）
+     */
+    @Benchmark
+    public TradeResult buyAndSell() {
+        UUID uuid = randomPlayer();
+        database.executeTrade(uuid, HoldingDelta.NONE, 100, 110);
+        return database.executeTrade(uuid, HoldingDelta.NONE, -100, 120);
+    }
+
+    /**
+     * キャッシュを通した売買（コマンドから呼ばれる経路）
+     */
+    @Benchmark
+    public TradeResult cachedBuyAndSell() {
+        UUID uuid = online.get(ThreadLocalRandom.current().nextInt(online.size()));
+        holdings.trade(uuid, 100, 110);
+        return holdings.trade(uuid, -100, 120);
+    }
+}
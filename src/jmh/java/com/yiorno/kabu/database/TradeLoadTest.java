@@ -0,0 +1,378 @@
+package com.yiorno.kabu.database;
+
+import com.yiorno.kabu.KabuPlugin;
+import com.yiorno.kabu.commands.PlayerCommand;
+import com.yiorno.kabu.util.KabuExecutor;
+import com.yiorno.kabu.util.MessageUtil;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import net.kyori.adventure.text.Component;
+import net.milkbowl.vault.economy.Economy;
+import net.milkbowl.vault.economy.EconomyResponse;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 売買の負荷試験
+ * 大量の仮想トレーダーが /kabu buy / sell / own / top を繰り返し、本物の PlayerCommand から組み込みDBへ反映する
+ * プレイヤーと Vault は代用品で、メインスレッドは1本のスレッドで代用する
+ * vault-failure を指定すると、その割合（%）で引き落としや入金を失敗させて取り消しの経路も通す
+ *
+ * 実行例: mvn -P benchmark test-compile exec:exec@loadtest -Dloadtest.args="traders=2000 duration=30 pool=10"
+ */
+public final class TradeLoadTest {
+
+    private enum Op {
+        BUY, SELL, OWN, TOP
+    }
+
+    // BenchmarkDatabase が用意する保有数と、口座ごとの最初の所持金
+    private static final int INITIAL_AMOUNT = 1000;
+    private static final long INITIAL_MONEY = 1_000_000;
+
+    private final int traders;
+    private final int accounts;
+    private final long durationNanos;
+    private final long thinkMillis;
+    private final int poolSize;
+    private final int concurrency;
+    private final int maxQueued;
+    private final int vaultFailure;
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder insufficient = new LongAdder();
+    private final LongAdder vaultFailures = new LongAdder();
+    private final LongAdder mainThreadBusy = new LongAdder();
+    private final LongAdder mainThreadTasks = new LongAdder();
+    private final Recorder poolWait = new Recorder();
+    private final LongAdder poolTimeouts = new LongAdder();
+
+    // 口座ごとの所持金（Vault の代わり）
+    private AtomicLong[] money;
+    // プレイヤーに送られたメッセージのうち、売買の結果を表すもの
+    private final Map<Component, LongAdder> outcomes = new HashMap<>();
+
+    private TradeLoadTest(Map<String, String> options) {
+        this.traders = Integer.parseInt(options.getOrDefault("traders", "2000"));
+        // 1つの口座を複数のトレーダーで共有し、同じプレイヤーへの同時操作を起こす
+        this.accounts = Integer.parseInt(options.getOrDefault("accounts", String.valueOf(Math.max(1, traders / 4))));
+        this.durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "30")));
+        this.thinkMillis = Long.parseLong(options.getOrDefault("think", "50"));
+        this.poolSize = Integer.parseInt(options.getOrDefault("pool", "10"));
+        this.concurrency = Integer.parseInt(options.getOrDefault("concurrency", "16"));
+        this.maxQueued = Integer.parseInt(options.getOrDefault("max-queued", "1000"));
+        this.vaultFailure = Integer.parseInt(options.getOrDefault("vault-failure", "0"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator > 0) {
+                options.put(arg.substring(0, separator), arg.substring(separator + 1));
+            }
+        }
+        new TradeLoadTest(options).run();
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("executor.max-concurrency", concurrency);
+        config.set("executor.max-queued", maxQueued);
+        Plugin plugin = BenchmarkDatabase.plugin(config);
+
+        DatabaseManager database = BenchmarkDatabase.open("load" + System.nanoTime(), accounts, plugin, pool -> {
+            pool.setMaximumPoolSize(poolSize);
+            pool.setMinimumIdle(poolSize);
+            pool.setMetricsTrackerFactory(poolTracker());
+        });
+        Leaderboard leaderboard = new Leaderboard();
+        leaderboard.load(database.getAllHoldings());
+        HoldingsCache holdings = new HoldingsCache(plugin, database, leaderboard);
+
+        money = new AtomicLong[accounts];
+        for (int i = 0; i < accounts; i++) {
+            money[i] = new AtomicLong(INITIAL_MONEY);
+        }
+        String prefix = database.getSettings().prefix();
+        outcome(prefix, insufficient, "お金が足りません！", "カブが足りません！");
+        outcome(prefix, failed, "購入に失敗しました", "売却に失敗しました", "エラーが発生しました");
+        outcome(prefix, rejected, "混雑しています。しばらくしてからもう一度お試しください");
+
+        // メインスレッドの代わり（処理にかかった時間を数える）
+        ExecutorService main = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "kabu-load-main"));
+        KabuExecutor executor = new KabuExecutor(plugin, database.getSettings().executor(), task -> main.execute(() -> {
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                mainThreadBusy.add(System.nanoTime() - start);
+                mainThreadTasks.increment();
+            }
+        }));
+        PlayerCommand command = new PlayerCommand(kabu(plugin, database), database, holdings, leaderboard,
+                new NameCache(database), new TradeLedger(plugin, database), executor, economy());
+
+        System.out.println("負荷試験を開始します: トレーダー " + traders + "人 / 口座 " + accounts + " / " +
+                TimeUnit.NANOSECONDS.toSeconds(durationNanos) + "秒 / 接続プール " + poolSize + " / 同時実行 " + concurrency);
+
+        int price = database.getCurrentPrice();
+        List<Recorder[]> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        long start = System.nanoTime();
+        long deadline = start + durationNanos;
+        for (int i = 0; i < traders; i++) {
+            Recorder[] latencies = newRecorders();
+            results.add(latencies);
+            Player player = player(i % accounts);
+            threads.add(Thread.ofVirtual().name("kabu-trader-" + i)
+                    .start(() -> trade(player, deadline, latencies, command, executor)));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        executor.shutdown();
+        main.shutdown();
+        holdings.flush();
+
+        report(elapsed, merge(results), database, price);
+        database.close();
+    }
+
+    /**
+     * 1人のトレーダーの動き（コマンドの処理が終わってから次のコマンドを打つ）
+     */
+    private void trade(Player player, long deadline, Recorder[] latencies, PlayerCommand command, KabuExecutor executor) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        while (System.nanoTime() < deadline) {
+            int roll = random.nextInt(100);
+            Op op = roll < 35 ? Op.BUY : roll < 70 ? Op.SELL : roll < 90 ? Op.OWN : Op.TOP;
+            String amount = String.valueOf(100 * (random.nextInt(5) + 1));
+            String[] args = switch (op) {
+                case BUY -> new String[] { "buy", amount };
+                case SELL -> new String[] { "sell", amount };
+                case OWN -> new String[] { "own" };
+                case TOP -> new String[] { "top" };
+            };
+
+            // コマンドはサーバーと同じくメインスレッドで受け付ける
+            long start = System.nanoTime();
+            executor.sync(() -> command.execute(player, args)).thenCompose(Function.identity()).join();
+            latencies[op.ordinal()].add(System.nanoTime() - start);
+
+            if (thinkMillis > 0) {
+                try {
+                    Thread.sleep(random.nextLong(thinkMillis * 2 + 1));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 売買の結果を表すメッセージを、数える先と結び付ける
+     */
+    private void outcome(String prefix, LongAdder counter, String... messages) {
+        for (String message : messages) {
+            outcomes.put(MessageUtil.component(prefix).append(MessageUtil.component(message)), counter);
+        }
+    }
+
+    /**
+     * i 番目の口座のプレイヤー（受け取ったメッセージから売買の結果を数える）
+     */
+    private Player player(int account) {
+        UUID uuid = BenchmarkDatabase.player(account);
+        return StandalonePlugin.stub(Player.class, Map.of(
+                "getUniqueId", args -> uuid,
+                "getName", args -> "trader" + account,
+                "sendMessage", args -> {
+                    LongAdder counter = args[0] instanceof Component message ? outcomes.get(message) : null;
+                    if (counter != null) {
+                        counter.increment();
+                    }
+                    return null;
+                }));
+    }
+
+    /**
+     * 口座ごとの所持金を持つ Vault の代わり
+     */
+    private Economy economy() {
+        return StandalonePlugin.stub(Economy.class, Map.of(
+                "has", args -> balance(args[0]).get() >= (double) args[1],
+                "getBalance", args -> (double) balance(args[0]).get(),
+                "withdrawPlayer", args -> transfer(balance(args[0]), -(long) (double) args[1]),
+                "depositPlayer", args -> transfer(balance(args[0]), (long) (double) args[1])));
+    }
+
+    private AtomicLong balance(Object player) {
+        UUID uuid = ((OfflinePlayer) player).getUniqueId();
+        return money[(int) uuid.getLeastSignificantBits()];
+    }
+
+    private EconomyResponse transfer(AtomicLong balance, long delta) {
+        if (ThreadLocalRandom.current().nextInt(100) < vaultFailure) {
+            vaultFailures.increment();
+            return new EconomyResponse(0, balance.get(), EconomyResponse.ResponseType.FAILURE, "負荷試験で失敗させました");
+        }
+        long current;
+        do {
+            current = balance.get();
+            if (current + delta < 0) {
+                return new EconomyResponse(0, current, EconomyResponse.ResponseType.FAILURE, "所持金が足りません");
+            }
+        } while (!balance.compareAndSet(current, current + delta));
+        return new EconomyResponse(Math.abs(delta), current + delta, EconomyResponse.ResponseType.SUCCESS, null);
+    }
+
+    /**
+     * コマンドに渡すプラグイン本体の代わり（起動済みで、設定は組み込みDBと同じもの）
+     */
+    private static KabuPlugin kabu(Plugin plugin, DatabaseManager database) {
+        return StandalonePlugin.stub(KabuPlugin.class, Map.of(
+                "getLogger", args -> plugin.getLogger(),
+                "getConfig", args -> plugin.getConfig(),
+                "getName", args -> plugin.getName(),
+                "getSettings", args -> database.getSettings()));
+    }
+
+    private void report(long elapsed, Recorder[] latencies, DatabaseManager database, int price) {
+        long total = Arrays.stream(latencies).mapToLong(Recorder::size).sum();
+        double seconds = elapsed / 1e9;
+
+        System.out.println();
+        System.out.println("=== 負荷試験の結果 ===");
+        System.out.printf("スループット: %.1f 件/秒 (合計 %d件 / 混雑で拒否 %d件 / 失敗 %d件 / 残高・保有数不足 %d件 / Vaultの失敗 %d件)%n",
+                total / seconds, total, rejected.sum(), failed.sum(), insufficient.sum(), vaultFailures.sum());
+        System.out.printf("%-6s %10s %10s %10s %10s%n", "操作", "件数", "p50(ms)", "p99(ms)", "p999(ms)");
+        for (Op op : Op.values()) {
+            long[] sorted = latencies[op.ordinal()].sorted();
+            System.out.printf("%-6s %10d %10.2f %10.2f %10.2f%n", op, sorted.length,
+                    millis(sorted, 0.50), millis(sorted, 0.99), millis(sorted, 0.999));
+        }
+
+        long[] waits = poolWait.sorted();
+        System.out.printf("接続プールの待ち時間: p50 %.3fms / p99 %.3fms / p999 %.3fms (取得 %d回 / タイムアウト %d回)%n",
+                millis(waits, 0.50), millis(waits, 0.99), millis(waits, 0.999), waits.length, poolTimeouts.sum());
+        System.out.printf("メインスレッド: 使用率 %.1f%% / 1件あたり %.3fms (%d件)%n",
+                100.0 * mainThreadBusy.sum() / elapsed,
+                mainThreadTasks.sum() == 0 ? 0.0 : mainThreadBusy.sum() / 1e6 / mainThreadTasks.sum(), mainThreadTasks.sum());
+
+        // カブ価は動かないので、保有数の評価額と所持金の合計は最初から変わらないはず
+        // （取り消しに失敗したり、更新が消えたりした口座だけがずれる）
+        List<UUID> uuids = new ArrayList<>();
+        for (int i = 0; i < accounts; i++) {
+            uuids.add(BenchmarkDatabase.player(i));
+        }
+        Map<UUID, Integer> stored = database.getPlayerKabuBatch(uuids);
+        int lost = 0;
+        int negative = 0;
+        for (int i = 0; i < accounts; i++) {
+            int amount = stored.getOrDefault(uuids.get(i), 0);
+            if ((long) amount * price + money[i].get() != (long) INITIAL_AMOUNT * price + INITIAL_MONEY) {
+                lost++;
+            }
+            if (amount < 0) {
+                negative++;
+            }
+        }
+        System.out.printf("更新の消失: %d口座 / 保有数がマイナスの口座: %d%n", lost, negative);
+    }
+
+    private MetricsTrackerFactory poolTracker() {
+        return (poolName, poolStats) -> new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                poolWait.add(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                poolTimeouts.increment();
+            }
+        };
+    }
+
+    private static Recorder[] newRecorders() {
+        Recorder[] recorders = new Recorder[Op.values().length];
+        for (int i = 0; i < recorders.length; i++) {
+            recorders[i] = new Recorder();
+        }
+        return recorders;
+    }
+
+    private static Recorder[] merge(List<Recorder[]> results) {
+        Recorder[] merged = newRecorders();
+        for (Recorder[] recorders : results) {
+            for (int i = 0; i < recorders.length; i++) {
+                merged[i].addAll(recorders[i]);
+            }
+        }
+        return merged;
+    }
+
+    private static double millis(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    /**
+     * 計測値（ナノ秒）を溜めておく可変長の配列
+     */
+    private static final class Recorder {
+
+        private long[] values = new long[64];
+        private int size;
+
+        synchronized void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        synchronized void addAll(Recorder other) {
+            long[] copied = other.sorted();
+            for (long value : copied) {
+                add(value);
+            }
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized long[] sorted() {
+            long[] copy = Arrays.copyOf(values, size);
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.yiorno.kabu.util;
+
+import net.kyori.adventure.text.Component;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * メッセージ変換のベンチマーク
+ * 以前の MessageUtil.colorize（送信のたびに色コードを変換）に代わる parse / component の経路を、
+ * キャッシュがない場合とある場合に分けて測り、テンプレートに値を埋め込む場合とも比べる
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+
+    private static final String PREFIX = "&f[<##00ff7f>Kabu&cβ&f] &f";
+    private static final MessageTemplate NEW_PRICE = MessageTemplate.of("新カブ価 {0} MOFU ( 増減:{1} )");
+
+    /**
+     * 毎回解析する（colorize と同じく送信のたびに変換する場合）
+     */
+    @Benchmark
+    public Component colorizeReplacementParse() {
+        return MessageUtil.parse(PREFIX);
+    }
+
+    /**
+     * キャッシュが空の状態で取り出す（リロード直後の1回目、キャッシュを空にする時間も含む）
+     */
+    @Benchmark
+    public Component colorizeReplacementColdCache() {
+        MessageUtil.clearCache();
+        return MessageUtil.component(PREFIX);
+    }
+
+    /**
+     * キャッシュから取り出す（2回目以降）
+     */
+    @Benchmark
+    public Component colorizeReplacementWarmCache() {
+        return MessageUtil.component(PREFIX);
+    }
+
+    @Benchmark
+    public Component renderTemplate() {
+        return NEW_PRICE.render(123, -4);
+    }
+
+    @Benchmark
+    public Component prefixedMessage() {
+        return MessageUtil.component(PREFIX).append(NEW_PRICE.render(123, -4));
+    }
+}
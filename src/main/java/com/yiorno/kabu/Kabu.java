@@ -3,26 +3,54 @@ package com.yiorno.kabu;
 import com.yiorno.kabu.commands.AdminCommand;
 import com.yiorno.kabu.commands.PlayerCommand;
 import com.yiorno.kabu.database.DatabaseManager;
+import com.yiorno.kabu.database.HoldingsCache;
+import com.yiorno.kabu.database.Leaderboard;
+import com.yiorno.kabu.database.NameCache;
+import com.yiorno.kabu.database.PeriodPruner;
+import com.yiorno.kabu.database.SchemaMigrator;
+import com.yiorno.kabu.database.Storage;
+import com.yiorno.kabu.database.TradeLedger;
 import com.yiorno.kabu.listeners.PlayerJoinListener;
+import com.yiorno.kabu.listeners.PlayerQuitListener;
+import com.yiorno.kabu.util.KabuExecutor;
+import com.yiorno.kabu.util.MessageUtil;
 import net.milkbowl.vault.economy.Economy;
 import org.bukkit.plugin.RegisteredServiceProvider;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+
 /**
  * Kabuプラグインのメインクラス
  */
-public final class Kabu extends JavaPlugin {
+public final class Kabu extends JavaPlugin implements KabuPlugin {
 
     private DatabaseManager databaseManager;
+    private HoldingsCache holdingsCache;
+    private Leaderboard leaderboard;
+    private NameCache nameCache;
+    private PeriodPruner periodPruner;
+    private TradeLedger tradeLedger;
+    private Settlement settlement;
+    private PriceNotifier priceNotifier;
+    private MetricsExporter metricsExporter;
+    private KabuExecutor executor;
     private Economy economy;
     private RenewPrice renewPrice;
-    private String prefix;
+    private final AtomicReference<Settings> settings = new AtomicReference<>();
+    private CompletableFuture<Void> startup;
+    private volatile boolean ready;
+    private volatile boolean startupFailed;
 
     @Override
     public void onEnable() {
         // 設定ファイルを保存
         saveDefaultConfig();
-        prefix = getConfig().getString("prefix", "&f[Kabu] &f");
+        settings.set(Settings.from(getConfig()));
 
         getLogger().info("カブプラグインを起動しています...");
 
@@ -33,30 +61,139 @@ public final class Kabu extends JavaPlugin {
             return;
         }
 
-        // データベースの初期化
-        databaseManager = new DatabaseManager(this);
-        databaseManager.initialize();
-
-        // 価格更新システムの初期化
-        renewPrice = new RenewPrice(this, databaseManager);
-        renewPrice.startScheduler();
+        // DBを使わない部品を先に作成
+        databaseManager = new DatabaseManager(this, this::getSettings);
+        leaderboard = new Leaderboard();
+        holdingsCache = new HoldingsCache(this, databaseManager, leaderboard);
+        nameCache = new NameCache(databaseManager);
+        periodPruner = new PeriodPruner(this, databaseManager);
+        tradeLedger = new TradeLedger(this, databaseManager);
+        settlement = new Settlement(this, databaseManager, tradeLedger, economy);
+        executor = new KabuExecutor(this, getSettings().executor());
+        priceNotifier = new PriceNotifier(this, holdingsCache);
+        metricsExporter = new MetricsExporter(this, databaseManager, holdingsCache, tradeLedger);
+        renewPrice = new RenewPrice(this, databaseManager, holdingsCache, settlement, priceNotifier);
 
-        // コマンドの登録
-        PlayerCommand playerCommand = new PlayerCommand(this, databaseManager, economy);
-        AdminCommand adminCommand = new AdminCommand(this, databaseManager, renewPrice);
+        // コマンドの登録（起動処理が終わるまでは「起動中」と応答する）
+        PlayerCommand playerCommand = new PlayerCommand(this, databaseManager, holdingsCache, leaderboard, nameCache, tradeLedger,
+                executor, economy);
+        AdminCommand adminCommand = new AdminCommand(this, holdingsCache, nameCache, tradeLedger, executor, renewPrice, settlement);
 
         getCommand("kabu").setExecutor(playerCommand);
         getCommand("editkabu").setExecutor(adminCommand);
         getCommand("reset-kabu").setExecutor(adminCommand);
+        getCommand("kabu-settlement").setExecutor(adminCommand);
 
         // イベントリスナーの登録
-        getServer().getPluginManager().registerEvents(new PlayerJoinListener(this, databaseManager), this);
+        getServer().getPluginManager().registerEvents(new PlayerJoinListener(this, databaseManager, holdingsCache, nameCache),
+                this);
+        getServer().getPluginManager().registerEvents(new PlayerQuitListener(holdingsCache), this);
+
+        // DB接続・スキーマ移行・キャッシュの読み込みは非同期で行う
+        startup = CompletableFuture.runAsync(this::startupAsync, runnable -> Thread.ofVirtual().name("kabu-startup").start(runnable))
+                .thenRunAsync(this::finishStartup, runnable -> getServer().getScheduler().runTask(this, runnable))
+                .exceptionally(error -> {
+                    startupFailed = true;
+                    getLogger().log(Level.SEVERE, "カブプラグインの起動に失敗しました", error);
+                    return null;
+                });
+    }
+
+    /**
+     * 非同期の起動処理
+     */
+    private void startupAsync() {
+        long total = System.currentTimeMillis();
+
+        phase("データベース接続", () -> databaseManager.initialize(Storage.of(getSettings(), getDataFolder()), getSettings().pool()));
+        phase("スキーマ移行", () -> {
+            try {
+                new SchemaMigrator(this, databaseManager).migrate();
+            } catch (SQLException e) {
+                throw new IllegalStateException("スキーマ移行に失敗しました", e);
+            }
+        });
+        phase("キャッシュ読み込み", () -> {
+            databaseManager.reloadPriceSnapshot();
+            databaseManager.loadPriceHistory();
+            leaderboard.load(databaseManager.getAllHoldings());
+            nameCache.load();
+        });
+
+        getLogger().info("起動処理が完了しました (合計 " + (System.currentTimeMillis() - total) + "ms)");
+    }
+
+    /**
+     * 起動処理の完了後にメインスレッドで行う処理
+     */
+    private void finishStartup() {
+        ready = true;
+        metricsExporter.start();
+        holdingsCache.startFlushTask();
+        tradeLedger.start();
+        renewPrice.startScheduler();
+        // DBに接続できない間に取りこぼした日付の切り替えを、接続が戻ったらすぐ適用する
+        databaseManager.getCircuitBreaker().onRecovered(renewPrice::runNow);
+        periodPruner.start();
+        settlement.resume();
+
+        // 起動処理中にログインしていたプレイヤーを読み込む
+        getServer().getOnlinePlayers().forEach(player -> getServer().getScheduler().runTaskAsynchronously(this, () -> {
+            holdingsCache.load(player.getUniqueId());
+            nameCache.update(player.getUniqueId(), player.getName());
+        }));
 
         getLogger().info("カブプラグインが起動しました！");
     }
 
+    private void phase(String name, Runnable action) {
+        long start = System.currentTimeMillis();
+        action.run();
+        getLogger().info(name + "が完了しました (" + (System.currentTimeMillis() - start) + "ms)");
+    }
+
     @Override
     public void onDisable() {
+        if (startup != null && !startup.isDone()) {
+            getLogger().warning("起動処理の途中で停止しました");
+        }
+
+        if (renewPrice != null) {
+            renewPrice.stopScheduler();
+        }
+
+        if (priceNotifier != null) {
+            priceNotifier.stop();
+        }
+
+        if (metricsExporter != null) {
+            metricsExporter.stop();
+        }
+
+        if (periodPruner != null) {
+            periodPruner.stop();
+        }
+
+        // 実行中のコマンド処理の完了を待つ
+        if (executor != null) {
+            executor.shutdown();
+        }
+
+        // 精算を中断し、続きは次回の起動時に行う
+        if (settlement != null) {
+            settlement.stop();
+        }
+
+        // 未反映の保有数をすべて書き込む
+        if (holdingsCache != null) {
+            holdingsCache.shutdown();
+        }
+
+        // 台帳の残りを書き込む
+        if (tradeLedger != null) {
+            tradeLedger.shutdown();
+        }
+
         // データベース接続を閉じる
         if (databaseManager != null) {
             databaseManager.close();
@@ -84,11 +221,70 @@ public final class Kabu extends JavaPlugin {
         return databaseManager;
     }
 
+    public HoldingsCache getHoldingsCache() {
+        return holdingsCache;
+    }
+
+    @Override
+    public RenewPrice getRenewPrice() {
+        return renewPrice;
+    }
+
     public Economy getEconomy() {
         return economy;
     }
 
-    public String getPrefix() {
-        return prefix;
+    /**
+     * 現在の設定（リロードされると別のインスタンスに差し替わる）
+     */
+    @Override
+    public Settings getSettings() {
+        return settings.get();
+    }
+
+    /**
+     * 設定ファイルを読み直して差し替え、接続プールの設定も実行中のプールに反映する
+     *
+     * @return 読み直せた場合は true（設定に誤りがあれば以前の設定のまま false を返す）
+     */
+    @Override
+    public boolean reloadSettings() {
+        reloadConfig();
+        Settings next;
+        try {
+            next = Settings.from(getConfig());
+        } catch (RuntimeException e) {
+            getLogger().log(Level.WARNING, "設定ファイルの読み込みに失敗したため、以前の設定のままにします", e);
+            return false;
+        }
+
+        Settings previous = settings.getAndSet(next);
+        MessageUtil.clearCache();
+        if (!next.pool().equals(previous.pool()) && databaseManager != null) {
+            databaseManager.applyPoolSettings(next.pool());
+        }
+        List<String> restartRequired = next.restartRequired(previous);
+        if (!restartRequired.isEmpty()) {
+            getLogger().info(String.join("・", restartRequired) + " の変更は再起動後に反映されます");
+        }
+        return true;
+    }
+
+    /**
+     * 起動処理が完了しているか
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 起動処理が完了していない場合に送る理由（完了していれば null）
+     */
+    @Override
+    public String getNotReadyMessage() {
+        if (ready) {
+            return null;
+        }
+        return startupFailed ? "カブプラグインの起動に失敗しました。管理者に連絡してください" : "カブプラグインは起動中です。しばらくお待ちください";
     }
 }
@@ -0,0 +1,32 @@
+package com.yiorno.kabu;
+
+import org.bukkit.plugin.Plugin;
+
+/**
+ * コマンドや価格・精算などの処理から使うプラグイン本体の機能
+ * サーバーの外（負荷試験など）でも、これを実装すればコマンドや各処理をそのまま動かせる
+ */
+public interface KabuPlugin extends Plugin {
+
+    /**
+     * 現在の設定（リロードされると別のインスタンスに差し替わる）
+     */
+    Settings getSettings();
+
+    /**
+     * 設定ファイルを読み直して差し替える
+     *
+     * @return 読み直せた場合は true（設定に誤りがあれば以前の設定のまま false を返す）
+     */
+    boolean reloadSettings();
+
+    /**
+     * 起動処理が完了していない場合に送る理由（完了していれば null）
+     */
+    String getNotReadyMessage();
+
+    /**
+     * カブ価の更新処理
+     */
+    RenewPrice getRenewPrice();
+}
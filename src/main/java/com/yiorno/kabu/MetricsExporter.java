@@ -0,0 +1,183 @@
+package com.yiorno.kabu;
+
+import com.yiorno.kabu.database.CircuitBreaker;
+import com.yiorno.kabu.database.DatabaseManager;
+import com.yiorno.kabu.database.HoldingsCache;
+import com.yiorno.kabu.database.PoolStatus;
+import com.yiorno.kabu.database.QueryMetrics;
+import com.yiorno.kabu.database.ReadReplica;
+import com.yiorno.kabu.database.TradeLedger;
+import com.yiorno.kabu.util.LatencyHistogram;
+import com.yiorno.kabu.util.MessageUtil;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+
+/**
+ * 計測値の集計と書き出し
+ * メインスレッドでのDB処理の時間を毎Tick締め、計測値を一定間隔で Prometheus のテキスト形式でファイルに書き出す
+ */
+public class MetricsExporter {
+
+    private final KabuPlugin plugin;
+    private final DatabaseManager database;
+    private final HoldingsCache holdings;
+    private final TradeLedger ledger;
+
+    private BukkitTask tickTask;
+    private BukkitTask writeTask;
+
+    public MetricsExporter(KabuPlugin plugin, DatabaseManager database, HoldingsCache holdings, TradeLedger ledger) {
+        this.plugin = plugin;
+        this.database = database;
+        this.holdings = holdings;
+        this.ledger = ledger;
+    }
+
+    /**
+     * 集計を開始（メインスレッドから呼ぶ）
+     */
+    public void start() {
+        QueryMetrics metrics = database.getMetrics();
+        metrics.bindMainThread();
+        tickTask = Bukkit.getScheduler().runTaskTimer(plugin, metrics::endTick, 1L, 1L);
+
+        Settings settings = plugin.getSettings();
+        if (settings.metricsExport()) {
+            long interval = settings.metricsInterval() * 20; // 秒をTickに変換
+            writeTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::write, interval, interval);
+        }
+    }
+
+    /**
+     * 集計を停止
+     */
+    public void stop() {
+        if (tickTask != null) {
+            tickTask.cancel();
+        }
+        if (writeTask != null) {
+            writeTask.cancel();
+        }
+    }
+
+    /**
+     * 計測値をファイルに書き出す（書き込み途中のファイルが読まれないように一時ファイルから置き換える）
+     */
+    private void write() {
+        Path target = plugin.getDataFolder().toPath().resolve(plugin.getSettings().metricsFile());
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            Files.writeString(temp, render(), StandardCharsets.UTF_8);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            plugin.getLogger().warning("計測値の書き出しに失敗しました: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 計測値を Prometheus のテキスト形式にする
+     */
+    public String render() {
+        QueryMetrics metrics = database.getMetrics();
+        StringBuilder out = new StringBuilder(16 * 1024);
+
+        header(out, "kabu_query_duration_seconds", "histogram", "DB処理の時間");
+        for (QueryMetrics.Query query : QueryMetrics.Query.values()) {
+            histogram(out, "kabu_query_duration_seconds", "query=\"" + query.name().toLowerCase(Locale.ROOT) + "\"",
+                    metrics.query(query));
+        }
+
+        header(out, "kabu_connection_acquire_seconds", "histogram", "接続プールから接続を取得するまでの待ち時間");
+        histogram(out, "kabu_connection_acquire_seconds", null, metrics.connectionAcquire());
+        header(out, "kabu_connection_timeouts_total", "counter", "接続を取得できずにタイムアウトした回数");
+        sample(out, "kabu_connection_timeouts_total", null, metrics.getConnectionTimeouts());
+
+        PoolStatus pool = database.getPoolStatus();
+        if (pool != null) {
+            header(out, "kabu_pool_connections", "gauge", "接続プールの接続数");
+            sample(out, "kabu_pool_connections", "state=\"active\"", pool.active());
+            sample(out, "kabu_pool_connections", "state=\"idle\"", pool.idle());
+            sample(out, "kabu_pool_connections", "state=\"total\"", pool.total());
+            header(out, "kabu_pool_max_connections", "gauge", "接続プールの最大接続数");
+            sample(out, "kabu_pool_max_connections", null, pool.maximum());
+            header(out, "kabu_pool_waiting_threads", "gauge", "接続の空きを待っているスレッド数");
+            sample(out, "kabu_pool_waiting_threads", null, pool.waiting());
+        }
+
+        CircuitBreaker breaker = database.getCircuitBreaker();
+        header(out, "kabu_database_available", "gauge", "DBに接続できる状態か（サーキットブレーカーが遮断中は0）");
+        sample(out, "kabu_database_available", null, breaker.isOpen() ? 0 : 1);
+        header(out, "kabu_circuit_breaker_opens_total", "counter", "サーキットブレーカーが遮断した回数");
+        sample(out, "kabu_circuit_breaker_opens_total", null, breaker.getOpens());
+
+        ReadReplica replica = database.getReplica();
+        if (replica != null) {
+            header(out, "kabu_replica_in_use", "gauge", "読み込みにレプリカを使っているか（遅延が上限を超えたか接続できない場合は0）");
+            sample(out, "kabu_replica_in_use", null, replica.isUsable() ? 1 : 0);
+            header(out, "kabu_replica_lag_seconds", "gauge", "レプリカのプライマリからの遅延（確認できない場合は-1）");
+            sample(out, "kabu_replica_lag_seconds", null, replica.getLagSeconds());
+        }
+
+        header(out, "kabu_main_thread_db_seconds", "histogram", "メインスレッドでDB処理を行ったTickごとのDB処理の時間");
+        histogram(out, "kabu_main_thread_db_seconds", null, metrics.mainThreadPerTick());
+        header(out, "kabu_ticks_total", "counter", "計測したTickの数");
+        sample(out, "kabu_ticks_total", null, metrics.getTicks());
+
+        header(out, "kabu_cache_hits_total", "counter", "キャッシュから取得できた回数");
+        sample(out, "kabu_cache_hits_total", "cache=\"holdings\"", holdings.getHits());
+        sample(out, "kabu_cache_hits_total", "cache=\"messages\"", MessageUtil.getCacheHits());
+        header(out, "kabu_cache_misses_total", "counter", "キャッシュになかった回数");
+        sample(out, "kabu_cache_misses_total", "cache=\"holdings\"", holdings.getMisses());
+        sample(out, "kabu_cache_misses_total", "cache=\"messages\"", MessageUtil.getCacheMisses());
+
+        header(out, "kabu_ledger_queued", "gauge", "台帳の書き込み待ちの件数");
+        sample(out, "kabu_ledger_queued", null, ledger.getQueued());
+        header(out, "kabu_ledger_written_total", "counter", "台帳に書き込んだ件数");
+        sample(out, "kabu_ledger_written_total", null, ledger.getWritten());
+        header(out, "kabu_ledger_dropped_total", "counter", "台帳のキューが満杯で破棄した件数");
+        sample(out, "kabu_ledger_dropped_total", null, ledger.getDropped());
+
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        labels(out, name, labels).append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        labels(out, name, labels).append(value).append('\n');
+    }
+
+    private static StringBuilder labels(StringBuilder out, String name, String labels) {
+        out.append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        return out.append(' ');
+    }
+
+    private static void histogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        String prefix = labels != null ? labels + "," : "";
+        long cumulative = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            cumulative += histogram.count(i);
+            sample(out, name + "_bucket", prefix + "le=\"" + LatencyHistogram.upperBoundNanos(i) / 1e9 + "\"", cumulative);
+        }
+        cumulative += histogram.count(LatencyHistogram.BUCKETS);
+        sample(out, name + "_bucket", prefix + "le=\"+Inf\"", cumulative);
+        sample(out, name + "_sum", labels, histogram.sumNanos() / 1e9);
+        sample(out, name + "_count", labels, cumulative);
+    }
+}
@@ -0,0 +1,115 @@
+package com.yiorno.kabu;
+
+import com.yiorno.kabu.database.HoldingsCache;
+import com.yiorno.kabu.util.MessageTemplate;
+import com.yiorno.kabu.util.MessageUtil;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 価格更新後に、カブを持っているオンラインのプレイヤーへ評価額を個別に知らせる
+ * 保有数はまとめて1回で取得し、メッセージは数Tickに分けて送る
+ */
+public class PriceNotifier {
+
+    private static final MessageTemplate VALUATION = MessageTemplate.of("あなたの{0}カブの評価額は {1} MOFU ( 前日比 {2} )");
+
+    private record Notice(UUID uuid, int amount) {
+    }
+
+    private final KabuPlugin plugin;
+    private final HoldingsCache holdings;
+
+    // 以下はメインスレッドだけが触る
+    private final Deque<Notice> queue = new ArrayDeque<>();
+    private int price;
+    private int change;
+    private BukkitTask task;
+
+    public PriceNotifier(KabuPlugin plugin, HoldingsCache holdings) {
+        this.plugin = plugin;
+        this.holdings = holdings;
+    }
+
+    /**
+     * 新しい価格をオンラインの保有者へ知らせる（どのスレッドから呼んでもよい）
+     *
+     * @param price  新しいカブ価
+     * @param change 前日の終値との差
+     */
+    public void notifyHolders(int price, int change) {
+        if (!plugin.getSettings().notifyEnabled() || !plugin.isEnabled()) {
+            return;
+        }
+
+        CompletableFuture.supplyAsync(() -> Bukkit.getOnlinePlayers().stream().map(Player::getUniqueId).toList(), this::runSync)
+                .thenApplyAsync(holdings::getAll, this::runAsync)
+                .thenAcceptAsync(amounts -> start(price, change, amounts), this::runSync)
+                .exceptionally(error -> {
+                    plugin.getLogger().warning("保有者へのカブ価のお知らせに失敗しました: " + error.getMessage());
+                    return null;
+                });
+    }
+
+    private void start(int newPrice, int newChange, Map<UUID, Integer> amounts) {
+        // 前回のお知らせが残っていれば新しい価格で置き換える
+        queue.clear();
+        price = newPrice;
+        change = newChange;
+        amounts.forEach((uuid, amount) -> {
+            if (amount > 0) {
+                queue.add(new Notice(uuid, amount));
+            }
+        });
+
+        if (!queue.isEmpty() && task == null) {
+            task = Bukkit.getScheduler().runTaskTimer(plugin, this::tick, 1L, 1L);
+        }
+    }
+
+    private void tick() {
+        Settings settings = plugin.getSettings();
+        for (int i = 0; i < settings.notifyPerTick() && !queue.isEmpty(); i++) {
+            Notice notice = queue.poll();
+            Player player = Bukkit.getPlayer(notice.uuid());
+            if (player == null) {
+                continue;
+            }
+
+            long value = (long) notice.amount() * price;
+            long valueChange = (long) notice.amount() * change;
+            MessageUtil.sendMessage(player, settings.prefix(), VALUATION, notice.amount(), value, MessageUtil.signed(valueChange));
+        }
+
+        if (queue.isEmpty()) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    private void runSync(Runnable runnable) {
+        Bukkit.getScheduler().runTask(plugin, runnable);
+    }
+
+    private void runAsync(Runnable runnable) {
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, runnable);
+    }
+
+    /**
+     * 送信待ちのお知らせを破棄
+     */
+    public void stop() {
+        queue.clear();
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+}
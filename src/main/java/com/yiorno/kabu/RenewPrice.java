@@ -1,12 +1,23 @@
 package com.yiorno.kabu;
 
 import com.yiorno.kabu.database.DatabaseManager;
+import com.yiorno.kabu.database.HoldingsCache;
+import com.yiorno.kabu.database.PriceSnapshot;
+import com.yiorno.kabu.util.MessageTemplate;
 import com.yiorno.kabu.util.MessageUtil;
 import org.bukkit.Bukkit;
-import org.bukkit.plugin.Plugin;
 
+import java.time.Duration;
 import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
 /**
  * カブ価格の更新ロジック
@@ -14,47 +25,215 @@ import java.util.Random;
  */
 public class RenewPrice {
 
-    private final Plugin plugin;
+    private static final MessageTemplate NEW_PERIOD_PRICE = MessageTemplate.of("新カブ価 {0} MOFU");
+    private static final MessageTemplate NEW_PRICE = MessageTemplate.of("新カブ価 {0} MOFU ( 増減:{1} )");
+    private static final MessageTemplate INTRADAY_PRICE = MessageTemplate.of("カブ価が変動しました {0} MOFU ( 増減:{1} )");
+
+    // 日付の切り替えに失敗したときの再試行の間隔（失敗するたびに倍にし、上限で止める）
+    private static final long RETRY_MIN_MINUTES = 1;
+    private static final long RETRY_MAX_MINUTES = 30;
+
+    private final KabuPlugin plugin;
     private final DatabaseManager database;
+    private final HoldingsCache holdings;
+    private final Settlement settlement;
+    private final PriceNotifier notifier;
+    // 日中の価格変動に使う乱数（日付の切り替えには日付ごとの乱数を使う）
     private final Random random;
-    private final String prefix;
+    private final ScheduledExecutorService scheduler;
+
+    // スケジュールに関わる設定は起動時の値を使い続ける
+    private final ZoneId zone;
+    private final boolean intraday;
+    private final long tickMinutes;
 
-    public RenewPrice(Plugin plugin, DatabaseManager database) {
+    // 最後にお知らせした価格と時刻（スケジューラーのスレッドだけが触る）
+    private int lastBroadcastPrice;
+    private long lastBroadcastAt;
+    // 次に失敗したときの再試行までの時間（スケジューラーのスレッドだけが触る）
+    private long retryMinutes = RETRY_MIN_MINUTES;
+
+    public RenewPrice(KabuPlugin plugin, DatabaseManager database, HoldingsCache holdings, Settlement settlement,
+            PriceNotifier notifier) {
         this.plugin = plugin;
         this.database = database;
+        this.holdings = holdings;
+        this.settlement = settlement;
+        this.notifier = notifier;
         this.random = new Random();
-        this.prefix = plugin.getConfig().getString("prefix", "&f[Kabu] &f");
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "kabu-price-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Settings settings = plugin.getSettings();
+        this.zone = settings.zone();
+        this.intraday = settings.intradayEnabled();
+        this.tickMinutes = settings.intradayMinutes();
     }
 
     /**
      * 日付をチェックして価格を更新
+     * サーバー停止中に切り替わった日があれば、古い日から順に1日ずつ適用する
+     * 各日の価格はその日付から決まる乱数で決めるので、再試行や別のサーバーで実行しても同じ結果になる
+     *
+     * @return 今日の分まで適用済みか（DBに書き込めなかった場合は false）
      */
-    public void checkAndUpdatePrice() {
-        int currentDay = LocalDate.now().getDayOfMonth();
-        int lastUpdateDay = database.getLastUpdateDay();
+    public synchronized boolean checkAndUpdatePrice() {
+        LocalDate today = today();
+        PriceSnapshot snapshot = database.getPriceSnapshot();
+        LocalDate lastUpdate = snapshot.lastUpdateDate(today);
 
         // 既に今日更新済みなら何もしない
-        if (lastUpdateDay == currentDay) {
-            return;
+        if (!lastUpdate.isBefore(today)) {
+            return true;
+        }
+
+        int price = snapshot.price();
+        int change = snapshot.change();
+        boolean newPeriod = false;
+        int closingPrice = price;
+        long days = ChronoUnit.DAYS.between(lastUpdate, today);
+        long seed = plugin.getSettings().priceSeed();
+
+        for (LocalDate date = lastUpdate.plusDays(1); !date.isAfter(today); date = date.plusDays(1)) {
+            Random daily = dailyRandom(date, seed);
+            if (isResetDay(date)) {
+                // 1日または16日: カブをリセットして新価格を設定
+                if (!newPeriod) {
+                    closingPrice = price;
+                }
+                price = newPeriodPrice(daily);
+                change = 0;
+                newPeriod = true;
+            } else {
+                // 通常日: 価格を変動させる
+                int[] next = dailyPrice(daily, price);
+                price = next[0];
+                change = next[1];
+            }
+        }
+
+        // 途中でリセット日をまたいだ場合は期間を1つ進める（全プレイヤーのカブは0になる）
+        boolean updated = newPeriod
+                ? holdings.startNewPeriod(price, change, today, settlement.isEnabled() ? closingPrice : 0)
+                : database.updatePrice(price, change, today);
+        if (!updated) {
+            return false;
+        }
+        if (newPeriod) {
+            // 終わった期間の保有数を終値で精算する（精算しない設定なら何もしない）
+            settlement.resume();
+        }
+
+        if (days > 1) {
+            plugin.getLogger().info("停止中の" + days + "日分の価格変動を適用しました");
         }
 
-        if (currentDay == 1 || currentDay == 16) {
-            // 1日または16日: カブをリセットして新価格を設定
-            resetKabuOnNewPeriod(currentDay);
+        // ブロードキャスト（メインスレッドで行う）
+        if (isResetDay(today)) {
+            broadcast(NEW_PERIOD_PRICE, price);
         } else {
-            // 通常日: 価格を変動させる
-            updateDailyPrice(currentDay);
+            broadcast(NEW_PRICE, price, change);
+        }
+        lastBroadcastPrice = price;
+        lastBroadcastAt = System.nanoTime();
+        if (!newPeriod) {
+            // 新しい期間の初日は誰もカブを持っていないので知らせない
+            notifier.notifyHolders(price, change);
+        }
+
+        plugin.getLogger().info("カブ価を更新しました: " + price + " MOFU (増減: " + change + ")");
+        return true;
+    }
+
+    /**
+     * 日中の価格変動を1回行う
+     * 今日の始値に引き戻されながら対数正規に動き、増減は常に前日の終値との差になる
+     */
+    public synchronized void tick() {
+        // DBに接続できない間は価格を動かさない
+        if (!database.isAvailable()) {
+            return;
+        }
+
+        LocalDate today = today();
+        PriceSnapshot snapshot = database.getPriceSnapshot();
+
+        // 日付の切り替えがまだ適用されていなければ、そちらに任せる
+        if (snapshot.lastUpdateDate(today).isBefore(today)) {
+            return;
+        }
+
+        Settings settings = plugin.getSettings();
+        // 始値が記録されていない場合（移行直後など）は現在のカブ価を始値とみなす
+        int open = snapshot.openPrice() > 0 ? snapshot.openPrice() : snapshot.price();
+        int price = intradayPrice(random, settings, snapshot.price(), open);
+        if (price == snapshot.price()) {
+            return;
+        }
+
+        // 前日の終値との差は、動いた分だけ増減に足していく
+        int change = snapshot.change() + (price - snapshot.price());
+        if (!database.updatePrice(price, change)) {
+            return;
+        }
+
+        if (settings.debug()) {
+            plugin.getLogger().info("日中のカブ価変動: " + snapshot.price() + " -> " + price + " MOFU");
+        }
+
+        // 前回のお知らせから一定時間が経ち、かつ大きく動いたときだけお知らせする
+        long now = System.nanoTime();
+        boolean moved = Math.abs(price - lastBroadcastPrice) >= Math.max(1, lastBroadcastPrice * settings.intradayBroadcastThreshold());
+        if (now - lastBroadcastAt >= settings.intradayBroadcastIntervalNanos() && moved) {
+            broadcast(INTRADAY_PRICE, price, change);
+            notifier.notifyHolders(price, change);
+            lastBroadcastPrice = price;
+            lastBroadcastAt = now;
+        }
+    }
+
+    private void broadcast(MessageTemplate template, Object... args) {
+        if (plugin.isEnabled()) {
+            Bukkit.getScheduler().runTask(plugin, () -> MessageUtil.broadcast(plugin.getSettings().prefix(), template, args));
         }
     }
 
     /**
-     * 1日/16日のリセット処理
+     * 日付の切り替えに使うタイムゾーン
+     */
+    public ZoneId zone() {
+        return zone;
+    }
+
+    /**
+     * 設定したタイムゾーンでの今日の日付
      */
-    private void resetKabuOnNewPeriod(int currentDay) {
-        // 全プレイヤーのカブをクリア
-        database.clearAllKabu();
+    public LocalDate today() {
+        return LocalDate.now(zone);
+    }
+
+    /**
+     * 日付の切り替えに使う、その日付だけで決まる乱数
+     */
+    static Random dailyRandom(LocalDate date, long seed) {
+        // 隣り合う日付の種が似ないように混ぜる（SplittableRandom と同じ混ぜ方）
+        long z = date.toEpochDay() * 0x9E3779B97F4A7C15L + seed;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return new Random(z ^ (z >>> 31));
+    }
 
-        // 新しい価格を計算
+    private static boolean isResetDay(LocalDate date) {
+        return date.getDayOfMonth() == 1 || date.getDayOfMonth() == 16;
+    }
+
+    /**
+     * 1日/16日のリセット時の新価格
+     */
+    static int newPeriodPrice(Random random) {
         int kabuPrice1 = random.nextInt(10) + 1; // 1-10
         int kabuPrice2;
 
@@ -69,24 +248,13 @@ public class RenewPrice {
         }
 
         int kabuPrice3 = random.nextInt(9) + 1; // 1-9
-        int newPrice = kabuPrice2 - kabuPrice3;
-
-        // データベースを更新
-        database.updatePrice(newPrice, 0, currentDay);
-
-        // ブロードキャスト
-        String message = prefix + "新カブ価 " + newPrice + " MOFU";
-        Bukkit.getServer().broadcast(net.kyori.adventure.text.Component.text(MessageUtil.colorize(message)));
-
-        plugin.getLogger().info("カブ価をリセットしました: " + newPrice + " MOFU");
+        return kabuPrice2 - kabuPrice3;
     }
 
     /**
-     * 通常日の価格変動
+     * 通常日の価格変動（[新価格, 増減] を返す）
      */
-    private void updateDailyPrice(int currentDay) {
-        int currentPrice = database.getCurrentPrice();
-
+    static int[] dailyPrice(Random random, int currentPrice) {
         // 変動率を決定
         int nextKabuChance = random.nextInt(51); // 0-50
         int nextKabuPrice;
@@ -115,25 +283,84 @@ public class RenewPrice {
             priceChange = 334;
         }
 
-        // データベースを更新
-        database.updatePrice(newPrice, priceChange, currentDay);
-
-        // ブロードキャスト
-        String message = prefix + "新カブ価 " + newPrice + " MOFU ( 増減:" + priceChange + " )";
-        Bukkit.getServer().broadcast(net.kyori.adventure.text.Component.text(MessageUtil.colorize(message)));
+        return new int[] { newPrice, priceChange };
+    }
 
-        plugin.getLogger().info("カブ価を更新しました: " + newPrice + " MOFU (増減: " + priceChange + ")");
+    /**
+     * 日中の価格変動1回分の新価格
+     *
+     * @param price 現在のカブ価
+     * @param open  今日の始値（引き戻される先）
+     */
+    static int intradayPrice(Random random, Settings settings, int price, int open) {
+        double logPrice = Math.log(price);
+        double next = logPrice + settings.intradayMeanReversion() * (Math.log(open) - logPrice)
+                + settings.intradayVolatility() * random.nextGaussian();
+        return (int) Math.max(settings.intradayMinPrice(), Math.min(Integer.MAX_VALUE / 2, Math.round(Math.exp(next))));
     }
 
     /**
      * スケジューラーを開始
+     * 起動時に取りこぼした日を適用し、以降は設定したタイムゾーンの0時ちょうどに更新する
      */
     public void startScheduler() {
-        // 起動時に1回チェック（10秒後）
-        Bukkit.getScheduler().runTaskLater(plugin, this::checkAndUpdatePrice, 200L);
+        lastBroadcastPrice = database.getCurrentPrice();
+        lastBroadcastAt = System.nanoTime();
+        scheduler.execute(this::runAndReschedule);
+
+        // 日中の価格変動（同じスレッドで動くので日付の切り替えと重ならない）
+        if (intraday) {
+            scheduler.scheduleAtFixedRate(() -> {
+                try {
+                    tick();
+                } catch (RuntimeException e) {
+                    plugin.getLogger().log(Level.SEVERE, "日中のカブ価変動に失敗しました", e);
+                }
+            }, tickMinutes, tickMinutes, TimeUnit.MINUTES);
+            plugin.getLogger().info("日中の価格変動を有効にしました (" + tickMinutes + "分ごと)");
+        }
+    }
+
+    /**
+     * スケジューラーのスレッドで今すぐ更新を確認
+     */
+    public CompletableFuture<Void> runNow() {
+        return CompletableFuture.runAsync(this::checkAndUpdatePrice, scheduler);
+    }
+
+    /**
+     * スケジューラーを停止
+     */
+    public void stopScheduler() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 日付の切り替えを確認し、次の確認を予約する
+     * 成功したら次の0時に、失敗したら少し待って再試行する（失敗が続くほど間隔を延ばす）
+     */
+    private void runAndReschedule() {
+        boolean updated;
+        try {
+            updated = checkAndUpdatePrice();
+        } catch (RuntimeException e) {
+            plugin.getLogger().log(Level.SEVERE, "カブ価の更新に失敗しました", e);
+            updated = false;
+        }
+
+        // 次の0時まで待つ（早く起きた場合も日付を確認して再度待つだけ）
+        ZonedDateTime now = ZonedDateTime.now(zone);
+        ZonedDateTime nextRollover = now.toLocalDate().plusDays(1).atStartOfDay(zone);
+        long delay = Math.max(0, Duration.between(now, nextRollover).toMillis());
 
-        // 定期的にチェック
-        long interval = plugin.getConfig().getLong("date-check-interval", 30) * 60 * 20; // 分をTickに変換
-        Bukkit.getScheduler().runTaskTimer(plugin, this::checkAndUpdatePrice, 400L, interval);
+        if (updated) {
+            retryMinutes = RETRY_MIN_MINUTES;
+        } else {
+            // 0時より後にはしない（その時点でまとめて適用される）
+            delay = Math.min(delay, TimeUnit.MINUTES.toMillis(retryMinutes));
+            plugin.getLogger().warning("カブ価を更新できなかったため、" + TimeUnit.MILLISECONDS.toSeconds(delay) + "秒後に再試行します");
+            retryMinutes = Math.min(retryMinutes * 2, RETRY_MAX_MINUTES);
+        }
+        scheduler.schedule(this::runAndReschedule, delay, TimeUnit.MILLISECONDS);
     }
 }
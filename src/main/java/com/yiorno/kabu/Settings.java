@@ -0,0 +1,265 @@
+package com.yiorno.kabu;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * config.yml から読み込んだ設定のスナップショット（不変）
+ * /kabu reload のたびに新しく作り直して丸ごと差し替えるので、各部品は使うたびに {@link Kabu#getSettings()} から読む
+ * 接続先・キューやバッファの大きさ・定期処理の間隔など、作成時にしか使わない値は起動時にだけ反映する
+ * （どれが該当するかは {@link #restartRequired(Settings)} にまとめている）
+ *
+ * @param prefix                         メッセージのプレフィックス
+ * @param debug                          ログに詳細情報を出力するか
+ * @param storageType                    保存先（mysql か h2、起動時にだけ反映）
+ * @param storageFile                    組み込みDBのファイル名（起動時にだけ反映）
+ * @param mysql                          MySQLの接続設定（起動時にだけ反映）
+ * @param pool                           接続プールの設定
+ * @param replica                        読み込み専用のレプリカの設定
+ * @param breaker                        DB障害時の設定
+ * @param migrationChunkSize             既存テーブルの移行で1回にコピーする件数
+ * @param cacheFlushInterval             保有数をまとめてDBへ書き込む間隔（秒、起動時にだけ反映）
+ * @param executor                       コマンド処理の設定（起動時にだけ反映）
+ * @param ledger                         売買台帳の設定
+ * @param prune                          終了した期間の保有数の削除設定
+ * @param zone                           日付の切り替えに使うタイムゾーン（起動時にだけ反映）
+ * @param priceSeed                      日ごとの価格変動の乱数に混ぜる値（同じ日付と値からは同じ価格になる）
+ * @param notifyEnabled                  保有者へ評価額を個別に知らせるか
+ * @param notifyPerTick                  1Tickあたりに送るお知らせの件数
+ * @param settlementEnabled              期間終了時に精算するか
+ * @param settlementBatchSize            精算でDBから一度に読み込む件数
+ * @param settlementBudgetNanos          1Tickあたりに精算に使う時間の上限（ナノ秒）
+ * @param intradayEnabled                日中の価格変動を行うか（起動時にだけ反映）
+ * @param intradayMinutes                日中の価格変動の間隔（分、起動時にだけ反映）
+ * @param intradayVolatility             1回の変動の大きさ（割合）
+ * @param intradayMeanReversion          当日の始値に戻ろうとする強さ
+ * @param intradayMinPrice               日中の変動で下回らない価格
+ * @param intradayBroadcastIntervalNanos 価格変動をお知らせする最短の間隔（ナノ秒）
+ * @param intradayBroadcastThreshold     お知らせする変動幅（割合）
+ * @param historyBufferSize              メモリに保持する価格履歴の件数（起動時にだけ反映）
+ * @param chartWidth                     /kabu chart のグラフの幅
+ * @param metricsExport                  計測値をファイルに書き出すか
+ * @param metricsFile                    書き出すファイル（プラグインのフォルダからの相対パス）
+ * @param metricsInterval                書き出す間隔（秒、起動時にだけ反映）
+ */
+public record Settings(
+        String prefix,
+        boolean debug,
+        String storageType,
+        String storageFile,
+        MySql mysql,
+        Pool pool,
+        Replica replica,
+        Breaker breaker,
+        int migrationChunkSize,
+        long cacheFlushInterval,
+        Executor executor,
+        Ledger ledger,
+        Prune prune,
+        ZoneId zone,
+        long priceSeed,
+        boolean notifyEnabled,
+        int notifyPerTick,
+        boolean settlementEnabled,
+        int settlementBatchSize,
+        long settlementBudgetNanos,
+        boolean intradayEnabled,
+        long intradayMinutes,
+        double intradayVolatility,
+        double intradayMeanReversion,
+        int intradayMinPrice,
+        long intradayBroadcastIntervalNanos,
+        double intradayBroadcastThreshold,
+        int historyBufferSize,
+        int chartWidth,
+        boolean metricsExport,
+        String metricsFile,
+        long metricsInterval) {
+
+    /**
+     * MySQLへの接続設定（起動時にだけ反映）
+     */
+    public record MySql(String host, int port, String database, String username, String password) {
+    }
+
+    /**
+     * 接続プールの設定（実行中のプールにもそのまま反映できる項目だけ）
+     *
+     * @param maximumPoolSize   最大接続数
+     * @param minimumIdle       待機させておく最小の接続数
+     * @param connectionTimeout 接続を待つ時間の上限（ミリ秒）
+     */
+    public record Pool(int maximumPoolSize, int minimumIdle, long connectionTimeout) {
+    }
+
+    /**
+     * 読み込み専用のレプリカの設定（maxLagSeconds と lagProbe 以外は起動時にだけ反映）
+     *
+     * @param enabled           レプリカを使うか
+     * @param connection        接続設定（書いていない項目はプライマリと同じ値）
+     * @param maxLagSeconds     遅延の上限（秒、-1 のときは遅延を確認せず、接続できれば使う）
+     * @param lagProbe          遅延の確認方法（status か heartbeat）
+     * @param checkInterval     遅延を確認する間隔（秒）
+     * @param connectionTimeout 接続を待つ時間の上限（ミリ秒）
+     */
+    public record Replica(boolean enabled, MySql connection, long maxLagSeconds, String lagProbe, long checkInterval,
+            long connectionTimeout) {
+
+        /**
+         * 遅延を確認せずに使うか
+         */
+        public boolean trusted() {
+            return maxLagSeconds < 0;
+        }
+    }
+
+    /**
+     * DB障害時の設定
+     *
+     * @param failureThreshold 接続の取得に続けて何回失敗したら遮断するか
+     * @param probeInterval    遮断中に接続を確認する間隔（秒、次に遮断したときから反映）
+     */
+    public record Breaker(int failureThreshold, long probeInterval) {
+    }
+
+    /**
+     * コマンド処理の設定（起動時にだけ反映）
+     *
+     * @param maxConcurrency DB処理を同時に実行する最大数
+     * @param maxQueued      処理待ちの上限
+     */
+    public record Executor(int maxConcurrency, int maxQueued) {
+    }
+
+    /**
+     * 売買台帳の設定（batchSize 以外は起動時にだけ反映）
+     *
+     * @param queueSize     書き込み待ちの記録を溜めておける上限
+     * @param batchSize     1回のバッチで書き込む件数
+     * @param flushInterval 台帳へ書き込む間隔（秒）
+     */
+    public record Ledger(int queueSize, int batchSize, long flushInterval) {
+    }
+
+    /**
+     * 終了した期間の保有数の削除設定（interval は起動時にだけ反映）
+     *
+     * @param interval    削除処理を実行する間隔（分）
+     * @param chunkSize   1回のDELETEで削除する件数
+     * @param pauseMillis DELETEの間に入れる待ち時間（ミリ秒）
+     */
+    public record Prune(long interval, int chunkSize, long pauseMillis) {
+    }
+
+    /**
+     * 設定ファイルから読み込む（範囲外の値はここで丸める）
+     */
+    public static Settings from(ConfigurationSection config) {
+        int maximumPoolSize = Math.max(1, config.getInt("mysql.pool.maximum-pool-size", 10));
+        Pool pool = new Pool(
+                maximumPoolSize,
+                Math.clamp(config.getInt("mysql.pool.minimum-idle", 2), 0, maximumPoolSize),
+                Math.max(250, config.getLong("mysql.pool.connection-timeout", 30000)));
+
+        MySql mysql = new MySql(
+                config.getString("mysql.host", "localhost"),
+                config.getInt("mysql.port", 3306),
+                config.getString("mysql.database", "minecraft"),
+                config.getString("mysql.username", "root"),
+                config.getString("mysql.password", "password"));
+        // レプリカの接続設定で書いていない項目はプライマリと同じ値を使う
+        Replica replica = new Replica(
+                config.getBoolean("mysql.replica.enabled", false),
+                new MySql(
+                        config.getString("mysql.replica.host", mysql.host()),
+                        config.getInt("mysql.replica.port", mysql.port()),
+                        config.getString("mysql.replica.database", mysql.database()),
+                        config.getString("mysql.replica.username", mysql.username()),
+                        config.getString("mysql.replica.password", mysql.password())),
+                Math.max(-1, config.getLong("mysql.replica.max-lag", 5)),
+                config.getString("mysql.replica.lag-probe", "status").toLowerCase(Locale.ROOT),
+                Math.max(1, config.getLong("mysql.replica.check-interval", 5)),
+                Math.max(250, config.getLong("mysql.replica.connection-timeout", 1000)));
+
+        return new Settings(
+                config.getString("prefix", "&f[Kabu] &f"),
+                config.getBoolean("debug", false),
+                config.getString("storage.type", "mysql"),
+                config.getString("storage.file", "kabu"),
+                mysql,
+                pool,
+                replica,
+                new Breaker(
+                        Math.max(1, config.getInt("circuit-breaker.failure-threshold", 3)),
+                        Math.max(1, config.getLong("circuit-breaker.probe-interval", 10))),
+                Math.max(1, config.getInt("migration.chunk-size", 1000)),
+                Math.max(1, config.getLong("cache.flush-interval", 10)),
+                new Executor(
+                        Math.max(1, config.getInt("executor.max-concurrency", 16)),
+                        Math.max(1, config.getInt("executor.max-queued", 1000))),
+                new Ledger(
+                        Math.max(1, config.getInt("ledger.queue-size", 10000)),
+                        Math.max(1, config.getInt("ledger.batch-size", 500)),
+                        Math.max(1, config.getLong("ledger.flush-interval", 5))),
+                new Prune(
+                        Math.max(1, config.getLong("prune.interval", 60)),
+                        Math.max(1, config.getInt("prune.chunk-size", 500)),
+                        Math.max(0, config.getLong("prune.pause", 200))),
+                ZoneId.of(config.getString("timezone", "Asia/Tokyo")),
+                config.getLong("price-seed", 0),
+                config.getBoolean("notify.enabled", true),
+                Math.max(1, config.getInt("notify.per-tick", 20)),
+                config.getBoolean("settlement.enabled", false),
+                Math.max(1, config.getInt("settlement.batch-size", 500)),
+                TimeUnit.MILLISECONDS.toNanos(Math.max(1, config.getLong("settlement.tick-budget-ms", 5))),
+                config.getBoolean("intraday.enabled", false),
+                Math.max(1, config.getLong("price-check-interval", 60)),
+                Math.max(0, config.getDouble("intraday.volatility", 1.5)) / 100.0,
+                Math.clamp(config.getDouble("intraday.mean-reversion", 0.05), 0.0, 1.0),
+                Math.max(1, config.getInt("intraday.min-price", 10)),
+                TimeUnit.MINUTES.toNanos(Math.max(0, config.getLong("intraday.broadcast-interval", 15))),
+                Math.max(0, config.getDouble("intraday.broadcast-threshold", 5.0)) / 100.0,
+                Math.max(1, config.getInt("history.buffer-size", 288)),
+                Math.max(1, config.getInt("history.chart-width", 40)),
+                config.getBoolean("metrics.export", true),
+                config.getString("metrics.file", "metrics.prom"),
+                Math.max(1, config.getLong("metrics.interval", 15)));
+    }
+
+    /**
+     * 起動時にだけ反映する項目のうち、previous から変わったもの（config.yml のキー名）
+     */
+    public List<String> restartRequired(Settings previous) {
+        List<String> changed = new ArrayList<>();
+        changed(changed, "storage.type", storageType, previous.storageType);
+        changed(changed, "storage.file", storageFile, previous.storageFile);
+        changed(changed, "mysql", mysql, previous.mysql);
+        changed(changed, "mysql.replica.enabled", replica.enabled(), previous.replica.enabled());
+        changed(changed, "mysql.replica", replica.connection(), previous.replica.connection());
+        changed(changed, "mysql.replica.check-interval", replica.checkInterval(), previous.replica.checkInterval());
+        changed(changed, "mysql.replica.connection-timeout", replica.connectionTimeout(), previous.replica.connectionTimeout());
+        changed(changed, "cache.flush-interval", cacheFlushInterval, previous.cacheFlushInterval);
+        changed(changed, "executor", executor, previous.executor);
+        changed(changed, "ledger.queue-size", ledger.queueSize(), previous.ledger.queueSize());
+        changed(changed, "ledger.flush-interval", ledger.flushInterval(), previous.ledger.flushInterval());
+        changed(changed, "prune.interval", prune.interval(), previous.prune.interval());
+        changed(changed, "timezone", zone, previous.zone);
+        changed(changed, "intraday.enabled", intradayEnabled, previous.intradayEnabled);
+        changed(changed, "price-check-interval", intradayMinutes, previous.intradayMinutes);
+        changed(changed, "history.buffer-size", historyBufferSize, previous.historyBufferSize);
+        changed(changed, "metrics.interval", metricsInterval, previous.metricsInterval);
+        return changed;
+    }
+
+    private static void changed(List<String> changed, String key, Object next, Object previous) {
+        if (!Objects.equals(next, previous)) {
+            changed.add(key);
+        }
+    }
+}
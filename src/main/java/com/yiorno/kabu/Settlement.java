@@ -0,0 +1,240 @@
+package com.yiorno.kabu;
+
+import com.yiorno.kabu.database.DatabaseManager;
+import com.yiorno.kabu.database.SettlementJob;
+import com.yiorno.kabu.database.TradeLedger;
+import com.yiorno.kabu.util.MessageTemplate;
+import com.yiorno.kabu.util.MessageUtil;
+import net.milkbowl.vault.economy.Economy;
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * 期間終了時の精算
+ * 終わった期間の保有数を UUID 順に少しずつ読み込み、1Tickあたりの時間の上限を守りながら終値で売却する
+ * 読み込むときに各行へ入金中の印を付けてから入金し、入金後に入金済みにするので、途中で停止しても
+ * 再開時には入金済みと入金中の行を飛ばして続きから行う（同じプレイヤーへ二重に入金しない）
+ */
+public class Settlement {
+
+    private static final MessageTemplate SETTLED = MessageTemplate.of("前の期間のカブ{0}個を{1} MOFUで精算しました ({2} MOFU)");
+    private static final MessageTemplate FINISHED = MessageTemplate.of("前の期間のカブを終値 {0} MOFUで精算しました ({1}人)");
+
+    private record Holding(UUID uuid, int amount) {
+    }
+
+    private final KabuPlugin plugin;
+    private final DatabaseManager database;
+    private final TradeLedger ledger;
+    private final Economy economy;
+    private final Executor async;
+
+    // 以下はメインスレッドだけが触る
+    private final Deque<Holding> buffer = new ArrayDeque<>();
+    private SettlementJob job;
+    // 入金中の印を付けている途中の読み込み（停止時に印を外すために持っておく）
+    private CompletableFuture<Map<UUID, Integer>> claiming;
+    private UUID fetchCursor;
+    private boolean fetching;
+    private boolean exhausted;
+    private int settledCount;
+    private long settledTotal;
+    private BukkitTask task;
+
+    // 進み具合の記録を順番に行うための末尾
+    private CompletableFuture<Void> saves = CompletableFuture.completedFuture(null);
+
+    public Settlement(KabuPlugin plugin, DatabaseManager database, TradeLedger ledger, Economy economy) {
+        this.plugin = plugin;
+        this.database = database;
+        this.ledger = ledger;
+        this.economy = economy;
+        this.async = runnable -> Bukkit.getScheduler().runTaskAsynchronously(plugin, runnable);
+    }
+
+    /**
+     * 精算を行う設定になっているか
+     */
+    public boolean isEnabled() {
+        return plugin.getSettings().settlementEnabled();
+    }
+
+    /**
+     * 精算を実行中か（メインスレッドから呼ぶ）
+     */
+    public boolean isRunning() {
+        return job != null;
+    }
+
+    /**
+     * 完了していない精算があれば開始（どのスレッドから呼んでもよい）
+     */
+    public void resume() {
+        CompletableFuture.supplyAsync(database::getPendingSettlement, async)
+                .thenAcceptAsync(pending -> {
+                    if (pending != null && job == null && plugin.isEnabled()) {
+                        start(pending);
+                    }
+                }, runnable -> Bukkit.getScheduler().runTask(plugin, runnable));
+    }
+
+    private void start(SettlementJob pending) {
+        job = pending;
+        // 入金済みと入金中の行は読み込まないので、最初から読み直しても二重には入金しない
+        // （前回入金を断られて未精算に戻した行も、ここでもう一度入金する）
+        fetchCursor = null;
+        settledCount = pending.settledCount();
+        settledTotal = pending.settledTotal();
+        exhausted = false;
+        buffer.clear();
+
+        plugin.getLogger().info("期間" + pending.period() + "の精算を開始します (終値 " + pending.price() + " MOFU" +
+                (pending.lastUuid() != null ? "、" + pending.settledCount() + "人目から再開" : "") + ")");
+        if (pending.lastUuid() != null) {
+            reportUnconfirmed(pending);
+        }
+        fetch();
+        task = Bukkit.getScheduler().runTaskTimer(plugin, this::tick, 1L, 1L);
+    }
+
+    private void tick() {
+        Settings settings = plugin.getSettings();
+        long deadline = System.nanoTime() + settings.settlementBudgetNanos();
+        List<UUID> paid = new ArrayList<>();
+        List<UUID> refused = new ArrayList<>();
+        long total = 0;
+
+        while (!buffer.isEmpty() && System.nanoTime() < deadline) {
+            Holding holding = buffer.poll();
+            long proceeds = (long) holding.amount() * job.price();
+            OfflinePlayer player = Bukkit.getOfflinePlayer(holding.uuid());
+
+            if (economy.depositPlayer(player, proceeds).transactionSuccess()) {
+                ledger.record(holding.uuid(), TradeLedger.Side.SETTLE, -holding.amount(), job.price(), 0);
+                Player online = player.getPlayer();
+                if (online != null) {
+                    MessageUtil.sendMessage(online, settings.prefix(), SETTLED, holding.amount(), job.price(), proceeds);
+                }
+                paid.add(holding.uuid());
+                total += proceeds;
+            } else {
+                plugin.getLogger().warning("精算金の入金に失敗しました: " + holding.uuid() + " (" + proceeds + " MOFU)");
+                refused.add(holding.uuid());
+            }
+        }
+
+        if (!paid.isEmpty() || !refused.isEmpty()) {
+            saveProgress(job.period(), paid, refused, total);
+            settledCount += paid.size();
+            settledTotal += total;
+        }
+
+        if (buffer.size() < settings.settlementBatchSize() / 2 && !exhausted && !fetching) {
+            fetch();
+        }
+        if (buffer.isEmpty() && exhausted && !fetching) {
+            finish();
+        }
+    }
+
+    private void fetch() {
+        fetching = true;
+        int period = job.period();
+        UUID after = fetchCursor;
+        int batchSize = plugin.getSettings().settlementBatchSize();
+        claiming = CompletableFuture.supplyAsync(() -> database.claimSettlementPage(period, after, batchSize), async);
+        claiming.thenAcceptAsync(page -> {
+            fetching = false;
+            claiming = null;
+            if (job == null || job.period() != period) {
+                // 停止後に届いた分は stop() で印を外している
+                return;
+            }
+            if (page == null) {
+                // 読み込みに失敗した場合は次のTickで再試行する
+                return;
+            }
+            for (Map.Entry<UUID, Integer> entry : page.entrySet()) {
+                buffer.add(new Holding(entry.getKey(), entry.getValue()));
+                fetchCursor = entry.getKey();
+            }
+            exhausted = page.size() < batchSize;
+        }, runnable -> Bukkit.getScheduler().runTask(plugin, runnable));
+    }
+
+    private void saveProgress(int period, List<UUID> paid, List<UUID> refused, long total) {
+        saves = saves.exceptionally(error -> null)
+                .thenRunAsync(() -> database.saveSettlementProgress(period, paid, refused, paid.size(), total), async);
+    }
+
+    /**
+     * 前回の入金の途中で止まり、入金したか確認できない行をログに出す（二重に入金しないよう、自動では入金しない）
+     */
+    private void reportUnconfirmed(SettlementJob pending) {
+        CompletableFuture.supplyAsync(() -> database.getUnconfirmedSettlements(pending.period()), async)
+                .thenAccept(rows -> {
+                    if (rows == null || rows.isEmpty()) {
+                        return;
+                    }
+                    plugin.getLogger().warning("期間" + pending.period() + "の精算で入金を確認できなかったプレイヤーがいます（" +
+                            rows.size() + "人、二重の入金を避けるため自動では入金しません）");
+                    rows.forEach((uuid, amount) -> plugin.getLogger().warning("  " + uuid + ": " + amount + "個 (" +
+                            (long) amount * pending.price() + " MOFU)"));
+                });
+    }
+
+    private void finish() {
+        task.cancel();
+        task = null;
+        SettlementJob finished = job;
+        int count = settledCount;
+        long total = settledTotal;
+        job = null;
+
+        saves = saves.exceptionally(error -> null)
+                .thenRunAsync(() -> database.completeSettlement(finished.period()), async);
+        plugin.getLogger().info("期間" + finished.period() + "の精算が完了しました (" + count + "人 / 合計 " + total + " MOFU)");
+        MessageUtil.broadcast(plugin.getSettings().prefix(), FINISHED, finished.price(), count);
+
+        // 別の期間の精算が残っていれば続けて行う
+        saves.thenRun(this::resume);
+    }
+
+    /**
+     * 精算を中断し、記録中の進み具合の書き込みを待つ（続きは次回の起動時に再開する）
+     */
+    public void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        saves.exceptionally(error -> null).join();
+        if (job != null) {
+            // 印を付けたまま入金していない分は未精算に戻し、次回の起動時に入金する
+            List<UUID> unpaid = new ArrayList<>();
+            buffer.forEach(holding -> unpaid.add(holding.uuid()));
+            if (claiming != null) {
+                Map<UUID, Integer> page = claiming.exceptionally(error -> null).join();
+                if (page != null) {
+                    unpaid.addAll(page.keySet());
+                }
+            }
+            database.releaseSettlement(job.period(), unpaid);
+            buffer.clear();
+
+            plugin.getLogger().info("期間" + job.period() + "の精算を中断しました (" + settledCount + "人まで完了)");
+            job = null;
+        }
+    }
+}
@@ -1,37 +1,73 @@
 package com.yiorno.kabu.commands;
 
+import com.yiorno.kabu.Kabu;
 import com.yiorno.kabu.RenewPrice;
-import com.yiorno.kabu.database.DatabaseManager;
+import com.yiorno.kabu.Settlement;
+import com.yiorno.kabu.database.HoldingsCache;
+import com.yiorno.kabu.database.NameCache;
+import com.yiorno.kabu.database.TradeLedger;
+import com.yiorno.kabu.util.KabuExecutor;
+import com.yiorno.kabu.util.MessageTemplate;
 import com.yiorno.kabu.util.MessageUtil;
-import org.bukkit.Bukkit;
-import org.bukkit.OfflinePlayer;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
-import org.bukkit.plugin.Plugin;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
 
 /**
  * 管理コマンドハンドラー
  */
 public class AdminCommand implements CommandExecutor {
 
-    private final Plugin plugin;
-    private final DatabaseManager database;
+    private static final MessageTemplate PLAYER_NOT_FOUND = MessageTemplate.of("{0}というプレイヤーは見つかりません");
+    private static final MessageTemplate UNCONFIRMED_HEADER = MessageTemplate.of("期間{0}の精算で入金を確認できていないプレイヤー: {1}人");
+    private static final MessageTemplate UNCONFIRMED_ROW = MessageTemplate.of("  {0}: {1}個");
+    private static final MessageTemplate NOT_UNCONFIRMED = MessageTemplate.of("{0}は期間{1}の入金を確認できていない精算にありません");
+    private static final MessageTemplate CONFIRMED = MessageTemplate.of("期間{0}の{1}人を入金済みにしました");
+    private static final MessageTemplate RELEASED = MessageTemplate.of("期間{0}の{1}人を未精算に戻しました（精算を再開して入金します）");
+    private static final String SETTLEMENT_USAGE = "使い方: /kabu-settlement <期間> [confirm|release] [player|all]";
+
+    private final Kabu plugin;
+    private final HoldingsCache holdings;
+    private final NameCache names;
+    private final TradeLedger ledger;
+    private final KabuExecutor executor;
     private final RenewPrice renewPrice;
-    private final String prefix;
+    private final Settlement settlement;
 
-    public AdminCommand(Plugin plugin, DatabaseManager database, RenewPrice renewPrice) {
+    public AdminCommand(Kabu plugin, HoldingsCache holdings, NameCache names, TradeLedger ledger, KabuExecutor executor,
+            RenewPrice renewPrice, Settlement settlement) {
         this.plugin = plugin;
-        this.database = database;
+        this.holdings = holdings;
+        this.names = names;
+        this.ledger = ledger;
+        this.executor = executor;
         this.renewPrice = renewPrice;
-        this.prefix = plugin.getConfig().getString("prefix", "&f[Kabu] &f");
+        this.settlement = settlement;
     }
 
     @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
         if (!sender.hasPermission("mofucraft.staff")) {
-            MessageUtil.sendMessage(sender, prefix, "ああん？");
+            MessageUtil.sendMessage(sender, prefix(), "ああん？");
+            return true;
+        }
+
+        // 起動処理が終わるまでは受け付けない
+        String notReady = plugin.getNotReadyMessage();
+        if (notReady != null) {
+            MessageUtil.sendMessage(sender, prefix(), notReady);
+            return true;
+        }
+
+        // DBに接続できない間は保有数やカブ価を変更しない
+        if (!plugin.getDatabaseManager().isAvailable()) {
+            MessageUtil.sendMessage(sender, prefix(), "データベースに接続できないため、現在は変更できません");
             return true;
         }
 
@@ -49,32 +85,138 @@ public class AdminCommand implements CommandExecutor {
             try {
                 amount = Integer.parseInt(args[2]);
             } catch (NumberFormatException e) {
-                MessageUtil.sendMessage(sender, prefix, "数値を入力してください");
+                MessageUtil.sendMessage(sender, prefix(), "数値を入力してください");
                 return true;
             }
 
-            OfflinePlayer target = Bukkit.getOfflinePlayer(playerName);
-
+            int delta;
             if (action.equals("add")) {
-                database.addPlayerKabu(target.getUniqueId(), amount);
-                MessageUtil.sendMessage(sender, "done");
+                delta = amount;
             } else if (action.equals("remove")) {
-                database.addPlayerKabu(target.getUniqueId(), -amount);
-                MessageUtil.sendMessage(sender, "done");
+                delta = -amount;
             } else {
                 MessageUtil.sendMessage(sender, "使い方: /editkabu <add|remove> <player> <amount>");
+                return true;
+            }
+
+            UUID target = names.getUuid(playerName);
+            if (target == null) {
+                MessageUtil.sendMessage(sender, prefix(), PLAYER_NOT_FOUND, playerName);
+                return true;
             }
 
+            executor.async(() -> {
+                int kabu = holdings.add(target, delta);
+                ledger.record(target, TradeLedger.Side.EDIT, delta, plugin.getDatabaseManager().getCurrentPrice(), kabu);
+                return kabu;
+            }).thenAcceptAsync(kabu -> MessageUtil.sendMessage(sender, "done"), executor.mainThread())
+                    .exceptionally(error -> {
+                        plugin.getLogger().log(Level.SEVERE, "カブの編集に失敗しました: " + playerName, error);
+                        MessageUtil.sendMessage(sender, prefix(), "エラーが発生しました");
+                        return null;
+                    });
+
             return true;
         }
 
         // /reset-kabu コマンド
         if (command.getName().equalsIgnoreCase("reset-kabu")) {
-            renewPrice.checkAndUpdatePrice();
-            MessageUtil.sendMessage(sender, prefix, "カブ価をリセットしました");
+            renewPrice.runNow().thenRunAsync(() -> MessageUtil.sendMessage(sender, prefix(), "カブ価をリセットしました"),
+                    executor.mainThread()).exceptionally(error -> {
+                        plugin.getLogger().log(Level.SEVERE, "カブ価のリセットに失敗しました", error);
+                        MessageUtil.sendMessage(sender, prefix(), "エラーが発生しました");
+                        return null;
+                    });
+            return true;
+        }
+
+        // /kabu-settlement コマンド
+        if (command.getName().equalsIgnoreCase("kabu-settlement")) {
+            handleSettlement(sender, args);
             return true;
         }
 
         return false;
     }
+
+    /**
+     * 入金中の印が付いたまま残った精算の確認と片付け
+     * 引数が期間だけなら一覧を表示し、confirm は入金済みに、release は未精算に戻して精算をやり直す
+     * （入金されたかどうかは経済プラグインの記録で確かめてから使う）
+     */
+    private void handleSettlement(CommandSender sender, String[] args) {
+        int period;
+        try {
+            period = Integer.parseInt(args.length > 0 ? args[0] : "");
+        } catch (NumberFormatException e) {
+            MessageUtil.sendMessage(sender, SETTLEMENT_USAGE);
+            return;
+        }
+        String action = args.length > 1 ? args[1].toLowerCase(Locale.ROOT) : "list";
+        boolean resolve = action.equals("confirm") || action.equals("release");
+        if (!action.equals("list") && !(resolve && args.length >= 3)) {
+            MessageUtil.sendMessage(sender, SETTLEMENT_USAGE);
+            return;
+        }
+
+        // 実行中の精算も入金中の印を付けるので、区別できるように止まっている間だけ受け付ける
+        if (settlement.isRunning()) {
+            MessageUtil.sendMessage(sender, prefix(), "精算の実行中は操作できません。完了してから実行してください");
+            return;
+        }
+
+        UUID target = null;
+        if (!action.equals("list") && !args[2].equalsIgnoreCase("all")) {
+            target = names.getUuid(args[2]);
+            if (target == null) {
+                MessageUtil.sendMessage(sender, prefix(), PLAYER_NOT_FOUND, args[2]);
+                return;
+            }
+        }
+
+        UUID only = target;
+        executor.async(() -> plugin.getDatabaseManager().getUnconfirmedSettlements(period))
+                .thenAcceptAsync(rows -> {
+                    if (rows == null) {
+                        MessageUtil.sendMessage(sender, prefix(), "エラーが発生しました");
+                        return;
+                    }
+                    if (action.equals("list")) {
+                        MessageUtil.sendMessage(sender, prefix(), UNCONFIRMED_HEADER, period, rows.size());
+                        rows.forEach((uuid, amount) -> {
+                            String name = names.getName(uuid);
+                            MessageUtil.sendMessage(sender, UNCONFIRMED_ROW, name != null ? name : uuid, amount);
+                        });
+                        return;
+                    }
+                    if (only != null && !rows.containsKey(only)) {
+                        MessageUtil.sendMessage(sender, prefix(), NOT_UNCONFIRMED, args[2], period);
+                        return;
+                    }
+                    resolveSettlement(sender, period, only != null ? Map.of(only, rows.get(only)) : rows,
+                            action.equals("confirm"));
+                }, executor.mainThread());
+    }
+
+    private void resolveSettlement(CommandSender sender, int period, Map<UUID, Integer> rows, boolean paid) {
+        executor.async(() -> plugin.getDatabaseManager().resolveUnconfirmedSettlements(period, rows, paid))
+                .thenAcceptAsync(resolved -> {
+                    if (resolved < 0) {
+                        MessageUtil.sendMessage(sender, prefix(), "エラーが発生しました");
+                        return;
+                    }
+                    plugin.getLogger().info(sender.getName() + " が期間" + period + "の入金を確認できていない精算を" +
+                            (paid ? "入金済みに" : "未精算に戻") + "しました (" + resolved + "人)");
+                    if (paid) {
+                        MessageUtil.sendMessage(sender, prefix(), CONFIRMED, period, resolved);
+                    } else {
+                        MessageUtil.sendMessage(sender, prefix(), RELEASED, period, resolved);
+                        settlement.resume();
+                    }
+                }, executor.mainThread());
+    }
+
+    private String prefix() {
+        return plugin.getSettings().prefix();
+    }
 }
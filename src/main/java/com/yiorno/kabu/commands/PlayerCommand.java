@@ -1,36 +1,107 @@
 package com.yiorno.kabu.commands;
 
+import com.yiorno.kabu.KabuPlugin;
+import com.yiorno.kabu.database.CircuitBreaker;
 import com.yiorno.kabu.database.DatabaseManager;
+import com.yiorno.kabu.database.HoldingsCache;
+import com.yiorno.kabu.database.Leaderboard;
+import com.yiorno.kabu.database.NameCache;
+import com.yiorno.kabu.database.PoolStatus;
+import com.yiorno.kabu.database.PriceHistory;
+import com.yiorno.kabu.database.QueryMetrics;
+import com.yiorno.kabu.database.ReadReplica;
+import com.yiorno.kabu.database.TradeLedger;
+import com.yiorno.kabu.database.TradeResult;
+import com.yiorno.kabu.util.KabuExecutor;
+import com.yiorno.kabu.util.LatencyHistogram;
+import com.yiorno.kabu.util.MessageTemplate;
 import com.yiorno.kabu.util.MessageUtil;
+import com.yiorno.kabu.util.Sparkline;
 import net.milkbowl.vault.economy.Economy;
-import org.bukkit.Bukkit;
-import org.bukkit.OfflinePlayer;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
-import org.bukkit.plugin.Plugin;
 
+import java.time.Instant;
 import java.time.LocalDate;
-import java.util.LinkedHashMap;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 
 /**
  * プレイヤーコマンドハンドラー
  */
 public class PlayerCommand implements CommandExecutor {
 
-    private final Plugin plugin;
+    private static final int TOP_PAGE_SIZE = 5;
+    private static final int TOP_EARNERS_SIZE = 10;
+    private static final int HISTORY_PAGE_SIZE = 10;
+    private static final DateTimeFormatter HISTORY_TIME = DateTimeFormatter.ofPattern("MM/dd HH:mm");
+    private static final String TRADING_STOPPED = "データベースに接続できないため、現在カブの売買を停止しています";
+    private static final String READ_UNAVAILABLE = "データベースに接続できないため、現在は表示できません";
+    private static final String PRICE_NOT_SET = "データベースに書き込めなかったため、カブ価は変わっていません";
+
+    private static final MessageTemplate PRICE = MessageTemplate.of("本日のカブ価は{0} MOFUです");
+    private static final MessageTemplate OWN = MessageTemplate.of("現在{0}カブ持っています！");
+    private static final MessageTemplate OWN_COST = MessageTemplate.of("平均取得単価 {0} MOFU / 含み損益 {1} MOFU");
+    private static final MessageTemplate OWN_REALIZED = MessageTemplate.of("今期の確定損益 {0} MOFU");
+    private static final MessageTemplate BOUGHT = MessageTemplate.of("{0}カブ購入しました！");
+    private static final MessageTemplate SPENT = MessageTemplate.of("合計{0} MOFU使いました");
+    private static final MessageTemplate SOLD = MessageTemplate.of("{0}カブ売却しました");
+    private static final MessageTemplate EARNED = MessageTemplate.of("合計{0} MOFU入手しました！");
+    private static final MessageTemplate DAYS_REMAINING = MessageTemplate.of("あと{0}日でカブがダメになります！");
+    private static final MessageTemplate PLAYER_NOT_FOUND = MessageTemplate.of("{0}というプレイヤーは見つかりません");
+    private static final MessageTemplate CHECK = MessageTemplate.of("{0}は{1}カブ持っています");
+    private static final MessageTemplate TOP_HEADER = MessageTemplate.of("ランキング ({0}/{1}ページ)");
+    private static final MessageTemplate TOP_ENTRY = MessageTemplate.of("{0}位 {1} : {2}カブ");
+    private static final MessageTemplate OWN_RANK = MessageTemplate.of("あなたは{0}位です");
+    private static final MessageTemplate EARNER_ENTRY = MessageTemplate.of("{0}位 {1} : {2} MOFU");
+    private static final MessageTemplate CHART_HEADER = MessageTemplate.of("直近{0}回のカブ価 (最安 {1} / 最高 {2} MOFU)");
+    private static final MessageTemplate CHART_LINE = MessageTemplate.of("&a{0}");
+    private static final MessageTemplate HISTORY_HEADER = MessageTemplate.of("カブ価の履歴 ({0}ページ)");
+    private static final MessageTemplate HISTORY_ENTRY = MessageTemplate.of("{0} : {1} MOFU ( 増減:{2} )");
+    private static final MessageTemplate PRICE_SET = MessageTemplate.of("カブ価を{0}に設定しました");
+    private static final MessageTemplate CHANGE_SET = MessageTemplate.of("増減値を{0}に設定しました");
+    private static final MessageTemplate STATS_DATABASE = MessageTemplate.of("データベース: {0} (遮断 累計{1}回)");
+    private static final MessageTemplate STATS_REPLICA = MessageTemplate.of("レプリカ: {0} (遅延 {1}秒)");
+    private static final MessageTemplate STATS_POOL = MessageTemplate.of("接続プール: 使用中 {0} / 待機 {1} / 最大 {2} / 空き待ち {3}");
+    private static final MessageTemplate STATS_ACQUIRE = MessageTemplate.of("接続待ち: p50 {0}ms / p99 {1}ms / タイムアウト {2}回");
+    private static final MessageTemplate STATS_MAIN_THREAD = MessageTemplate.of("メインスレッドのDB処理: {0}Tick中{1}Tick / p99 {2}ms / 最大 {3}ms");
+    private static final MessageTemplate STATS_CACHE = MessageTemplate.of("キャッシュのヒット率: 保有数 {0}% / メッセージ {1}%");
+    private static final MessageTemplate STATS_LEDGER = MessageTemplate.of("台帳: 書き込み待ち {0}件 / 書き込み済み {1}件 / 破棄 {2}件");
+    private static final MessageTemplate STATS_QUERY = MessageTemplate.of("&7{0}&f: {1}件 p50 {2}ms / p99 {3}ms / 最大 {4}ms");
+
+    // メインスレッドだけで終わったコマンドの結果
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    private final KabuPlugin plugin;
     private final DatabaseManager database;
+    private final HoldingsCache holdings;
+    private final Leaderboard leaderboard;
+    private final NameCache names;
+    private final TradeLedger ledger;
+    private final KabuExecutor executor;
     private final Economy economy;
-    private final String prefix;
 
-    public PlayerCommand(Plugin plugin, DatabaseManager database, Economy economy) {
+    public PlayerCommand(KabuPlugin plugin, DatabaseManager database, HoldingsCache holdings,
+            Leaderboard leaderboard, NameCache names, TradeLedger ledger, KabuExecutor executor, Economy economy) {
         this.plugin = plugin;
         this.database = database;
+        this.holdings = holdings;
+        this.leaderboard = leaderboard;
+        this.names = names;
+        this.ledger = ledger;
+        this.executor = executor;
         this.economy = economy;
-        this.prefix = plugin.getConfig().getString("prefix", "&f[Kabu] &f");
     }
 
     @Override
@@ -40,185 +111,350 @@ public class PlayerCommand implements CommandExecutor {
             return true;
         }
 
-        Player player = (Player) sender;
+        execute((Player) sender, args);
+        return true;
+    }
+
+    /**
+     * コマンドを実行（メインスレッドから呼ぶ）
+     *
+     * @return DBを使う処理が終わると完了する Future（メインスレッドだけで終わる処理は完了済み）
+     */
+    public CompletableFuture<Void> execute(Player player, String[] args) {
+        // 起動処理が終わるまでは受け付けない
+        String notReady = plugin.getNotReadyMessage();
+        if (notReady != null) {
+            MessageUtil.sendMessage(player, prefix(), notReady);
+            return DONE;
+        }
 
         // 引数がない場合はヘルプを表示
         if (args.length == 0) {
             showHelp(player);
-            return true;
+            return DONE;
         }
 
         String subCommand = args[0].toLowerCase();
+        CompletableFuture<Void> result = DONE;
 
         switch (subCommand) {
             case "price":
                 showPrice(player);
                 break;
             case "own":
-                showOwn(player);
+                result = dispatch(player, () -> showOwn(player));
                 break;
             case "buy":
                 if (args.length < 2) {
-                    MessageUtil.sendMessage(player, prefix, "使い方: /kabu buy <数量>");
-                    return true;
+                    MessageUtil.sendMessage(player, prefix(), "使い方: /kabu buy <数量>");
+                    return DONE;
+                }
+                if (unavailable(player, TRADING_STOPPED)) {
+                    return DONE;
                 }
                 try {
                     int amount = Integer.parseInt(args[1]);
-                    buyKabu(player, amount);
+                    result = dispatch(player, () -> buyKabu(player, amount));
                 } catch (NumberFormatException e) {
-                    MessageUtil.sendMessage(player, prefix, "数値を入力してください");
+                    MessageUtil.sendMessage(player, prefix(), "数値を入力してください");
                 }
                 break;
             case "sell":
                 if (args.length < 2) {
-                    MessageUtil.sendMessage(player, prefix, "使い方: /kabu sell <数量>");
-                    return true;
+                    MessageUtil.sendMessage(player, prefix(), "使い方: /kabu sell <数量>");
+                    return DONE;
+                }
+                if (unavailable(player, TRADING_STOPPED)) {
+                    return DONE;
                 }
                 try {
                     int amount = Integer.parseInt(args[1]);
-                    sellKabu(player, amount);
+                    result = dispatch(player, () -> sellKabu(player, amount));
                 } catch (NumberFormatException e) {
-                    MessageUtil.sendMessage(player, prefix, "数値を入力してください");
+                    MessageUtil.sendMessage(player, prefix(), "数値を入力してください");
                 }
                 break;
             case "check":
                 if (args.length >= 2) {
-                    checkPlayer(player, args[1]);
+                    String targetName = args[1];
+                    result = dispatch(player, () -> checkPlayer(player, targetName));
                 } else {
                     checkDaysRemaining(player);
                 }
                 break;
             case "top":
-                showTop(player);
+                int page = 1;
+                if (args.length >= 2) {
+                    try {
+                        page = Integer.parseInt(args[1]);
+                    } catch (NumberFormatException e) {
+                        MessageUtil.sendMessage(player, prefix(), "数値を入力してください");
+                        return DONE;
+                    }
+                    if (page <= 0) {
+                        MessageUtil.sendMessage(player, prefix(), "その数値は使えません！");
+                        return DONE;
+                    }
+                }
+                showTop(player, page);
+                break;
+            case "earners":
+                if (unavailable(player, READ_UNAVAILABLE)) {
+                    return DONE;
+                }
+                result = dispatch(player, () -> showTopEarners(player));
+                break;
+            case "chart":
+                showChart(player);
+                break;
+            case "history":
+                int historyPage = 1;
+                if (args.length >= 2) {
+                    try {
+                        historyPage = Integer.parseInt(args[1]);
+                    } catch (NumberFormatException e) {
+                        MessageUtil.sendMessage(player, prefix(), "数値を入力してください");
+                        return DONE;
+                    }
+                    if (historyPage <= 0) {
+                        MessageUtil.sendMessage(player, prefix(), "その数値は使えません！");
+                        return DONE;
+                    }
+                }
+                result = showHistory(player, historyPage);
                 break;
             case "set":
                 if (!player.hasPermission("mofucraft.staff")) {
-                    MessageUtil.sendMessage(player, prefix, "ああん？");
-                    return true;
+                    MessageUtil.sendMessage(player, prefix(), "ああん？");
+                    return DONE;
                 }
                 if (args.length < 2) {
-                    MessageUtil.sendMessage(player, prefix, "おおん？");
-                    return true;
+                    MessageUtil.sendMessage(player, prefix(), "おおん？");
+                    return DONE;
+                }
+                if (unavailable(player, TRADING_STOPPED)) {
+                    return DONE;
                 }
                 try {
                     int price = Integer.parseInt(args[1]);
-                    setPrice(player, price);
+                    result = dispatch(player, () -> setPrice(player, price));
                 } catch (NumberFormatException e) {
-                    MessageUtil.sendMessage(player, prefix, "数値を入力してください");
+                    MessageUtil.sendMessage(player, prefix(), "数値を入力してください");
                 }
                 break;
             case "set-zougen":
                 if (!player.hasPermission("mofucraft.staff")) {
-                    MessageUtil.sendMessage(player, prefix, "ああん？");
-                    return true;
+                    MessageUtil.sendMessage(player, prefix(), "ああん？");
+                    return DONE;
                 }
                 if (args.length < 2) {
-                    MessageUtil.sendMessage(player, prefix, "おおん？");
-                    return true;
+                    MessageUtil.sendMessage(player, prefix(), "おおん？");
+                    return DONE;
+                }
+                if (unavailable(player, TRADING_STOPPED)) {
+                    return DONE;
                 }
                 try {
                     int change = Integer.parseInt(args[1]);
-                    setPriceChange(player, change);
+                    result = dispatch(player, () -> setPriceChange(player, change));
                 } catch (NumberFormatException e) {
-                    MessageUtil.sendMessage(player, prefix, "数値を入力してください");
+                    MessageUtil.sendMessage(player, prefix(), "数値を入力してください");
                 }
                 break;
             case "reload":
                 if (!player.hasPermission("mofucraft.staff")) {
-                    MessageUtil.sendMessage(player, prefix, "ああん？");
-                    return true;
+                    MessageUtil.sendMessage(player, prefix(), "ああん？");
+                    return DONE;
                 }
                 reload(player);
                 break;
+            case "stats":
+                if (!player.hasPermission("mofucraft.staff")) {
+                    MessageUtil.sendMessage(player, prefix(), "ああん？");
+                    return DONE;
+                }
+                showStats(player);
+                break;
             default:
                 showHelp(player);
                 break;
         }
 
+        return result;
+    }
+
+    /**
+     * DBに接続できない間はDBが必要な操作を断る（断った場合は true）
+     */
+    private boolean unavailable(Player player, String message) {
+        if (database.isAvailable()) {
+            return false;
+        }
+        MessageUtil.sendMessage(player, prefix(), message);
         return true;
     }
 
+    /**
+     * プレイヤーごとに順番を守ってコマンド処理を実行
+     */
+    private CompletableFuture<Void> dispatch(Player player, Supplier<CompletableFuture<Void>> pipeline) {
+        return executor.sequence(player.getUniqueId(), pipeline).exceptionally(error -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof RejectedExecutionException) {
+                MessageUtil.sendMessage(player, prefix(), "混雑しています。しばらくしてからもう一度お試しください");
+            } else {
+                plugin.getLogger().log(Level.SEVERE, "コマンド処理中にエラーが発生しました: " + player.getName(), cause);
+                MessageUtil.sendMessage(player, prefix(), "エラーが発生しました");
+            }
+            return null;
+        });
+    }
+
     private void showHelp(Player player) {
-        MessageUtil.sendMessage(player, "------- " + prefix + "-------");
+        MessageUtil.sendMessage(player, "------- " + prefix() + "-------");
         MessageUtil.sendMessage(player, "/kabu price : &a本日のカブ価");
         MessageUtil.sendMessage(player, "/kabu own : &a所持しているカブの確認");
         MessageUtil.sendMessage(player, "/kabu buy 数字 : &aカブを購入");
         MessageUtil.sendMessage(player, "/kabu sell 数字 : &aカブを売却");
         MessageUtil.sendMessage(player, "/kabu check : &a残り時間を確認");
+        MessageUtil.sendMessage(player, "/kabu earners : &a今期の確定損益ランキング");
+        MessageUtil.sendMessage(player, "/kabu chart : &aカブ価の推移をグラフで確認");
+        MessageUtil.sendMessage(player, "/kabu history ページ : &aカブ価の履歴を確認");
         MessageUtil.sendMessage(player, "もっと詳しく : mofucraft.net/kabu");
     }
 
     private void showPrice(Player player) {
         int price = database.getCurrentPrice();
-        MessageUtil.sendMessage(player, prefix, "本日のカブ価は" + price + " MOFUです");
+        MessageUtil.sendMessage(player, prefix(), PRICE, price);
     }
 
-    private void showOwn(Player player) {
-        int kabu = database.getPlayerKabu(player.getUniqueId());
-        MessageUtil.sendMessage(player, prefix, "現在" + kabu + "カブ持っています！");
+    private CompletableFuture<Void> showOwn(Player player) {
+        // DBに接続できない間はキャッシュにある保有数だけを表示する
+        if (holdings.getCached(player.getUniqueId()) == null && unavailable(player, READ_UNAVAILABLE)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return executor.async(() -> holdings.getPosition(player.getUniqueId())).thenAcceptAsync(position -> {
+            MessageUtil.sendMessage(player, prefix(), OWN, position.amount());
+            if (position.amount() > 0) {
+                long unrealized = position.unrealizedProfit(database.getCurrentPrice());
+                MessageUtil.sendMessage(player, prefix(), OWN_COST, Math.round(position.averageCost()),
+                        MessageUtil.signed(unrealized));
+            }
+            if (position.realizedProfit() != 0) {
+                MessageUtil.sendMessage(player, prefix(), OWN_REALIZED, MessageUtil.signed(position.realizedProfit()));
+            }
+        }, executor.mainThread());
     }
 
-    private void buyKabu(Player player, int amount) {
+    private CompletableFuture<Void> buyKabu(Player player, int amount) {
         // 100単位チェック
         if (amount % 100 != 0) {
-            MessageUtil.sendMessage(player, prefix, "100カブ単位で購入できます");
-            return;
+            MessageUtil.sendMessage(player, prefix(), "100カブ単位で購入できます");
+            return CompletableFuture.completedFuture(null);
         }
 
         if (amount <= 0) {
-            MessageUtil.sendMessage(player, prefix, "その数値は使えません！");
-            return;
+            MessageUtil.sendMessage(player, prefix(), "その数値は使えません！");
+            return CompletableFuture.completedFuture(null);
         }
 
-        int price = database.getCurrentPrice();
-        double totalCost = (double) amount * price;
-
-        // 残高チェック
-        if (!economy.has(player, totalCost)) {
-            MessageUtil.sendMessage(player, prefix, "お金が足りません！");
-            return;
-        }
+        UUID uuid = player.getUniqueId();
+        return executor.sync(database::getCurrentPrice).thenComposeAsync(price -> {
+            double totalCost = (double) amount * price;
+
+            // 残高チェック
+            if (!economy.has(player, totalCost)) {
+                MessageUtil.sendMessage(player, prefix(), "お金が足りません！");
+                return CompletableFuture.completedFuture(null);
+            }
+
+            // カブを追加してから代金を引き落とす
+            return executor.async(() -> holdings.trade(uuid, amount, price)).thenComposeAsync(result -> {
+                if (!result.isSuccess()) {
+                    MessageUtil.sendMessage(player, prefix(), "購入に失敗しました");
+                    return CompletableFuture.completedFuture(null);
+                }
+                ledger.record(uuid, TradeLedger.Side.BUY, amount, price, result.balance());
 
-        // カブを追加
-        database.addPlayerKabu(player.getUniqueId(), amount);
-        economy.withdrawPlayer(player, totalCost);
+                if (!economy.withdrawPlayer(player, totalCost).transactionSuccess()) {
+                    // 引き落としに失敗した場合は追加したカブを取り消す
+                    MessageUtil.sendMessage(player, prefix(), "お金が足りません！");
+                    return rollback(uuid, result, price);
+                }
 
-        MessageUtil.sendMessage(player, prefix, amount + "カブ購入しました！");
-        MessageUtil.sendMessage(player, prefix, "合計" + (int) totalCost + " MOFU使いました");
+                MessageUtil.sendMessage(player, prefix(), BOUGHT, amount);
+                MessageUtil.sendMessage(player, prefix(), SPENT, (int) totalCost);
+                return CompletableFuture.completedFuture(null);
+            }, executor.mainThread());
+        }, executor.mainThread());
     }
 
-    private void sellKabu(Player player, int amount) {
+    private CompletableFuture<Void> sellKabu(Player player, int amount) {
         // 100単位チェック
         if (amount % 100 != 0) {
-            MessageUtil.sendMessage(player, prefix, "100カブ単位で売却できます");
-            return;
+            MessageUtil.sendMessage(player, prefix(), "100カブ単位で売却できます");
+            return CompletableFuture.completedFuture(null);
         }
 
         if (amount <= 0) {
-            MessageUtil.sendMessage(player, prefix, "その数値は使えません！");
-            return;
+            MessageUtil.sendMessage(player, prefix(), "その数値は使えません！");
+            return CompletableFuture.completedFuture(null);
         }
 
-        int currentKabu = database.getPlayerKabu(player.getUniqueId());
-        if (currentKabu < amount) {
-            MessageUtil.sendMessage(player, prefix, "カブが足りません！");
-            return;
-        }
-
-        int price = database.getCurrentPrice();
-        double totalIncome = (double) amount * price;
+        UUID uuid = player.getUniqueId();
+        return executor.async(() -> {
+            // 保有数が足りる場合のみカブを減らす
+            int price = database.getCurrentPrice();
+            return new Trade(price, holdings.trade(uuid, -amount, price));
+        }).thenComposeAsync(trade -> {
+            switch (trade.result().status()) {
+                case INSUFFICIENT:
+                    MessageUtil.sendMessage(player, prefix(), "カブが足りません！");
+                    return CompletableFuture.completedFuture(null);
+                case FAILED:
+                    MessageUtil.sendMessage(player, prefix(), "売却に失敗しました");
+                    return CompletableFuture.completedFuture(null);
+                default:
+                    break;
+            }
+            ledger.record(uuid, TradeLedger.Side.SELL, -amount, trade.price(), trade.result().balance());
+
+            double totalIncome = (double) amount * trade.price();
+            if (!economy.depositPlayer(player, totalIncome).transactionSuccess()) {
+                // 入金に失敗した場合は減らしたカブを戻す
+                MessageUtil.sendMessage(player, prefix(), "売却に失敗しました");
+                return rollback(uuid, trade.result(), trade.price());
+            }
+
+            MessageUtil.sendMessage(player, prefix(), SOLD, amount);
+            MessageUtil.sendMessage(player, prefix(), EARNED, (int) totalIncome);
+            return CompletableFuture.completedFuture(null);
+        }, executor.mainThread());
+    }
 
-        // カブを減らす
-        database.addPlayerKabu(player.getUniqueId(), -amount);
-        economy.depositPlayer(player, totalIncome);
+    /**
+     * Vaultの処理に失敗した売買を取り消し、持ち高を売買の直前の状態に戻す
+     * （逆向きの売買にはしないので、取り消しで確定損益や取得金額は変わらない）
+     */
+    private CompletableFuture<Void> rollback(UUID uuid, TradeResult trade, int price) {
+        int delta = trade.previous().amount() - trade.balance();
+        return executor.async(() -> holdings.revert(uuid, trade)).thenAccept(result -> {
+            if (!result.isSuccess()) {
+                plugin.getLogger().severe("売買の取り消しに失敗しました: " + uuid + " (" + delta + ")");
+                return;
+            }
+            ledger.record(uuid, TradeLedger.Side.ROLLBACK, delta, price, result.balance());
+        });
+    }
 
-        MessageUtil.sendMessage(player, prefix, amount + "カブ売却しました");
-        MessageUtil.sendMessage(player, prefix, "合計" + (int) totalIncome + " MOFU入手しました！");
+    private record Trade(int price, TradeResult result) {
     }
 
     private void checkDaysRemaining(Player player) {
-        int currentDay = LocalDate.now().getDayOfMonth();
-        int daysInMonth = LocalDate.now().lengthOfMonth();
+        LocalDate today = plugin.getRenewPrice().today();
+        int currentDay = today.getDayOfMonth();
+        int daysInMonth = today.lengthOfMonth();
         int daysRemaining;
 
         if (currentDay <= 16) {
@@ -227,46 +463,199 @@ public class PlayerCommand implements CommandExecutor {
             daysRemaining = daysInMonth - currentDay + 1;
         }
 
-        MessageUtil.sendMessage(player, prefix, "あと" + daysRemaining + "日でカブがダメになります！");
+        MessageUtil.sendMessage(player, prefix(), DAYS_REMAINING, daysRemaining);
     }
 
-    private void checkPlayer(Player player, String targetName) {
-        OfflinePlayer target = Bukkit.getOfflinePlayer(targetName);
-        int kabu = database.getPlayerKabu(target.getUniqueId());
-        MessageUtil.sendMessage(player, prefix, targetName + "は" + kabu + "カブ持っています");
+    private CompletableFuture<Void> checkPlayer(Player player, String targetName) {
+        UUID target = names.getUuid(targetName);
+        if (target == null) {
+            MessageUtil.sendMessage(player, prefix(), PLAYER_NOT_FOUND, targetName);
+            return CompletableFuture.completedFuture(null);
+        }
+        if (holdings.getCached(target) == null && unavailable(player, READ_UNAVAILABLE)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return executor.async(() -> holdings.peek(target)).thenAcceptAsync(kabu ->
+                MessageUtil.sendMessage(player, prefix(), CHECK, targetName, kabu), executor.mainThread());
     }
 
-    private void showTop(Player player) {
-        Map<UUID, Integer> topPlayers = database.getTopPlayers(5);
+    private void showTop(Player player, int page) {
+        int totalPages = Math.max(1, (leaderboard.size() + TOP_PAGE_SIZE - 1) / TOP_PAGE_SIZE);
+        List<Leaderboard.Entry> entries = leaderboard.page((page - 1) * TOP_PAGE_SIZE, TOP_PAGE_SIZE);
+        int ownRank = leaderboard.rank(player.getUniqueId());
 
-        if (topPlayers.isEmpty()) {
-            MessageUtil.sendMessage(player, prefix, "まだランキングデータがありません");
+        if (entries.isEmpty()) {
+            MessageUtil.sendMessage(player, prefix(), page == 1 ? "まだランキングデータがありません" : "そのページはありません");
             return;
         }
 
-        int rank = 1;
-        for (Map.Entry<UUID, Integer> entry : topPlayers.entrySet()) {
-            OfflinePlayer p = Bukkit.getOfflinePlayer(entry.getKey());
-            MessageUtil.sendMessage(player, prefix, rank + "位 " + p.getName() + " : " + entry.getValue() + "カブ");
+        MessageUtil.sendMessage(player, prefix(), TOP_HEADER, page, totalPages);
+        int rank = (page - 1) * TOP_PAGE_SIZE + 1;
+        for (Leaderboard.Entry entry : entries) {
+            MessageUtil.sendMessage(player, prefix(), TOP_ENTRY, rank, displayName(entry.uuid()), entry.amount());
             rank++;
         }
+        if (ownRank > 0) {
+            MessageUtil.sendMessage(player, prefix(), OWN_RANK, ownRank);
+        }
     }
 
-    private void setPrice(Player player, int price) {
-        int currentDay = database.getLastUpdateDay();
-        database.updatePrice(price, 0, currentDay);
-        MessageUtil.sendMessage(player, prefix, "カブ価を" + price + "に設定しました");
+    private CompletableFuture<Void> showTopEarners(Player player) {
+        return executor.async(() -> database.getTopEarners(TOP_EARNERS_SIZE)).thenAcceptAsync(earners -> {
+            if (earners.isEmpty()) {
+                MessageUtil.sendMessage(player, prefix(), "まだ今期の利益を確定したプレイヤーはいません");
+                return;
+            }
+
+            MessageUtil.sendMessage(player, prefix(), "今期の確定損益ランキング");
+            int rank = 1;
+            for (Map.Entry<UUID, Long> entry : earners.entrySet()) {
+                MessageUtil.sendMessage(player, prefix(), EARNER_ENTRY, rank, displayName(entry.getKey()),
+                        MessageUtil.signed(entry.getValue()));
+                rank++;
+            }
+        }, executor.mainThread());
     }
 
-    private void setPriceChange(Player player, int change) {
+    private void showChart(Player player) {
+        int[] prices = database.getPriceHistory().prices();
+        if (prices.length == 0) {
+            MessageUtil.sendMessage(player, prefix(), "まだ価格履歴がありません");
+            return;
+        }
+
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int price : prices) {
+            min = Math.min(min, price);
+            max = Math.max(max, price);
+        }
+
+        int width = plugin.getSettings().chartWidth();
+        MessageUtil.sendMessage(player, prefix(), CHART_HEADER, prices.length, min, max);
+        MessageUtil.sendMessage(player, CHART_LINE, Sparkline.render(prices, width));
+    }
+
+    private CompletableFuture<Void> showHistory(Player player, int page) {
+        int offset = (page - 1) * HISTORY_PAGE_SIZE;
+        PriceHistory history = database.getPriceHistory();
+
+        // メモリにある範囲はそのまま表示し、それより古いページだけDBから読み込む
+        if (offset + HISTORY_PAGE_SIZE <= history.size()) {
+            sendHistory(player, page, history.latest(offset, HISTORY_PAGE_SIZE));
+            return DONE;
+        }
+        if (unavailable(player, READ_UNAVAILABLE)) {
+            return DONE;
+        }
+        return dispatch(player, () -> executor.async(() -> database.getPriceHistory(offset, HISTORY_PAGE_SIZE))
+                .thenAcceptAsync(points -> sendHistory(player, page, points), executor.mainThread()));
+    }
+
+    private void sendHistory(Player player, int page, List<PriceHistory.Point> points) {
+        if (points.isEmpty()) {
+            MessageUtil.sendMessage(player, prefix(), page == 1 ? "まだ価格履歴がありません" : "そのページはありません");
+            return;
+        }
+
+        ZoneId zone = plugin.getRenewPrice().zone();
+        MessageUtil.sendMessage(player, prefix(), HISTORY_HEADER, page);
+        for (PriceHistory.Point point : points) {
+            String time = HISTORY_TIME.format(Instant.ofEpochMilli(point.time()).atZone(zone));
+            MessageUtil.sendMessage(player, prefix(), HISTORY_ENTRY, time, point.price(), point.change());
+        }
+    }
+
+    private String displayName(UUID uuid) {
+        String name = names.getName(uuid);
+        return name != null ? name : "不明なプレイヤー";
+    }
+
+    private CompletableFuture<Void> setPrice(Player player, int price) {
+        return executor.async(() -> database.updatePrice(price, 0)).thenAcceptAsync(updated -> {
+            if (updated) {
+                MessageUtil.sendMessage(player, prefix(), PRICE_SET, price);
+            } else {
+                MessageUtil.sendMessage(player, prefix(), PRICE_NOT_SET);
+            }
+        }, executor.mainThread());
+    }
+
+    private CompletableFuture<Void> setPriceChange(Player player, int change) {
         int currentPrice = database.getCurrentPrice();
-        int currentDay = database.getLastUpdateDay();
-        database.updatePrice(currentPrice, change, currentDay);
-        MessageUtil.sendMessage(player, prefix, "増減値を" + change + "に設定しました");
+        return executor.async(() -> database.updatePrice(currentPrice, change)).thenAcceptAsync(updated -> {
+            if (updated) {
+                MessageUtil.sendMessage(player, prefix(), CHANGE_SET, change);
+            } else {
+                MessageUtil.sendMessage(player, prefix(), PRICE_NOT_SET);
+            }
+        }, executor.mainThread());
+    }
+
+    private void showStats(Player player) {
+        QueryMetrics metrics = database.getMetrics();
+        MessageUtil.sendMessage(player, prefix(), "カブプラグインの計測値");
+
+        CircuitBreaker breaker = database.getCircuitBreaker();
+        String state = breaker.isOpen()
+                ? "接続できません（" + (System.currentTimeMillis() - breaker.getOpenedAt()) / 1000 + "秒前から読み取り専用）"
+                : "接続中";
+        MessageUtil.sendMessage(player, prefix(), STATS_DATABASE, state, breaker.getOpens());
+        ReadReplica replica = database.getReplica();
+        if (replica != null) {
+            String replicaState = replica.isUsable() ? "読み込みに使用中" : "使用停止中（プライマリから読み込み）";
+            MessageUtil.sendMessage(player, prefix(), STATS_REPLICA, replicaState,
+                    replica.getLagSeconds() >= 0 ? String.valueOf(replica.getLagSeconds()) : "-");
+        }
+
+        PoolStatus pool = database.getPoolStatus();
+        if (pool != null) {
+            MessageUtil.sendMessage(player, prefix(), STATS_POOL, pool.active(), pool.idle(), pool.maximum(), pool.waiting());
+        }
+        LatencyHistogram acquire = metrics.connectionAcquire();
+        MessageUtil.sendMessage(player, prefix(), STATS_ACQUIRE, millis(acquire.percentileNanos(0.5)),
+                millis(acquire.percentileNanos(0.99)), metrics.getConnectionTimeouts());
+        LatencyHistogram mainThread = metrics.mainThreadPerTick();
+        MessageUtil.sendMessage(player, prefix(), STATS_MAIN_THREAD, metrics.getTicks(), mainThread.count(),
+                millis(mainThread.percentileNanos(0.99)), millis(mainThread.maxNanos()));
+        MessageUtil.sendMessage(player, prefix(), STATS_CACHE, percent(holdings.getHits(), holdings.getMisses()),
+                percent(MessageUtil.getCacheHits(), MessageUtil.getCacheMisses()));
+        MessageUtil.sendMessage(player, prefix(), STATS_LEDGER, ledger.getQueued(), ledger.getWritten(), ledger.getDropped());
+
+        for (QueryMetrics.Query query : QueryMetrics.Query.values()) {
+            LatencyHistogram histogram = metrics.query(query);
+            long count = histogram.count();
+            if (count > 0) {
+                MessageUtil.sendMessage(player, STATS_QUERY, query.name().toLowerCase(Locale.ROOT), count,
+                        millis(histogram.percentileNanos(0.5)), millis(histogram.percentileNanos(0.99)),
+                        millis(histogram.maxNanos()));
+            }
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.2f", nanos / 1_000_000.0);
+    }
+
+    private static String percent(long hits, long misses) {
+        long total = hits + misses;
+        return total == 0 ? "-" : String.format(Locale.ROOT, "%.1f", 100.0 * hits / total);
     }
 
     private void reload(Player player) {
-        plugin.reloadConfig();
-        MessageUtil.sendMessage(player, prefix, "設定ファイルをリロードしました");
+        if (!plugin.reloadSettings()) {
+            MessageUtil.sendMessage(player, prefix(), "設定ファイルに誤りがあるため、リロードしませんでした");
+            return;
+        }
+        executor.async(() -> {
+            database.reloadPriceSnapshot();
+            return null;
+        });
+        MessageUtil.sendMessage(player, prefix(), "設定ファイルをリロードしました");
+    }
+
+    private String prefix() {
+        return plugin.getSettings().prefix();
     }
 }
@@ -0,0 +1,151 @@
+package com.yiorno.kabu.database;
+
+import com.yiorno.kabu.Settings;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * DB接続のサーキットブレーカー
+ * 接続の取得に続けて失敗したら遮断し、その間は接続を待たずにすぐ失敗させる
+ * 遮断中はバックグラウンドで接続を確認し、成功したら自動で元に戻す
+ */
+public class CircuitBreaker {
+
+    private final Plugin plugin;
+    private final Supplier<Settings> settings;
+    private final BooleanSupplier probe;
+
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private final AtomicLong opens = new AtomicLong();
+    private final List<Runnable> recoveryListeners = new CopyOnWriteArrayList<>();
+    private volatile boolean open;
+    private volatile long openedAt;
+    private BukkitTask probeTask;
+
+    /**
+     * @param probe DBに接続できるかを確認する処理（遮断中に非同期で呼ばれる）
+     */
+    public CircuitBreaker(Plugin plugin, Supplier<Settings> settings, BooleanSupplier probe) {
+        this.plugin = plugin;
+        this.settings = settings;
+        this.probe = probe;
+    }
+
+    /**
+     * 接続を試してよいか（遮断中は false）
+     */
+    public boolean allow() {
+        return !open;
+    }
+
+    /**
+     * 遮断中か
+     */
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * 遮断した時刻（System.currentTimeMillis()、遮断していなければ 0）
+     */
+    public long getOpenedAt() {
+        return open ? openedAt : 0;
+    }
+
+    /**
+     * 遮断した回数（累計）
+     */
+    public long getOpens() {
+        return opens.get();
+    }
+
+    /**
+     * 遮断が解除されたときに実行する処理を登録（接続を確認した非同期スレッドで呼ばれる）
+     */
+    public void onRecovered(Runnable listener) {
+        recoveryListeners.add(listener);
+    }
+
+    /**
+     * 接続の取得に成功した
+     */
+    public void success() {
+        failures.set(0);
+    }
+
+    /**
+     * 接続の取得に失敗した（続けて失敗した回数がしきい値に達したら遮断する）
+     */
+    public void failure() {
+        if (failures.incrementAndGet() >= settings.get().breaker().failureThreshold()) {
+            trip();
+        }
+    }
+
+    private synchronized void trip() {
+        if (open) {
+            return;
+        }
+        openedAt = System.currentTimeMillis();
+        open = true;
+        opens.incrementAndGet();
+        plugin.getLogger().severe("データベースに接続できないため、読み取り専用に切り替えました（売買を停止します）");
+
+        if (plugin.isEnabled()) {
+            long probeInterval = settings.get().breaker().probeInterval() * 20; // 秒をTickに変換
+            probeTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::probe, probeInterval, probeInterval);
+        }
+    }
+
+    /**
+     * 接続を確認し、成功したら遮断を解除する（前回の確認が終わっていなければ何もしない）
+     */
+    private void probe() {
+        if (!probing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (probe.getAsBoolean() && reset()) {
+                recoveryListeners.forEach(Runnable::run);
+            }
+        } finally {
+            probing.set(false);
+        }
+    }
+
+    private synchronized boolean reset() {
+        if (!open) {
+            return false;
+        }
+        if (probeTask != null) {
+            probeTask.cancel();
+            probeTask = null;
+        }
+        failures.set(0);
+        open = false;
+
+        long seconds = (System.currentTimeMillis() - openedAt) / 1000;
+        plugin.getLogger().info("データベースへの接続が回復したため、売買を再開しました（停止時間 " + seconds + "秒）");
+        return true;
+    }
+
+    /**
+     * 接続の確認を停止
+     */
+    public synchronized void stop() {
+        if (probeTask != null) {
+            probeTask.cancel();
+            probeTask = null;
+        }
+    }
+}
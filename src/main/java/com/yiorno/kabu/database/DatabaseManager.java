@@ -1,17 +1,32 @@
 package com.yiorno.kabu.database;
 
+import com.yiorno.kabu.Settings;
+import com.yiorno.kabu.database.QueryMetrics.Query;
+import com.yiorno.kabu.util.UuidUtil;
 import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariConfigMXBean;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import org.bukkit.plugin.Plugin;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 
 /**
@@ -20,103 +35,235 @@ import java.util.logging.Level;
  */
 public class DatabaseManager {
 
+    /**
+     * 保有数の増減（増やす場合は取得金額を加え、減らす場合は取得金額を同じ割合で減らす）
+     */
+    private static final String INCREMENT_QUERY = "INSERT INTO kabu_players (uuid, period_id, kabu_amount, cost_basis) " +
+            "VALUES (?, ?, ?, ?) ON DUPLICATE KEY UPDATE " +
+            "cost_basis = CASE WHEN VALUES(kabu_amount) >= 0 THEN cost_basis + VALUES(cost_basis) " +
+            "WHEN kabu_amount > 0 THEN cost_basis - FLOOR(cost_basis * LEAST(-VALUES(kabu_amount), kabu_amount) / kabu_amount) " +
+            "ELSE 0 END, " +
+            "kabu_amount = kabu_amount + VALUES(kabu_amount)";
+
+    // キャッシュから持ち越した増減の反映（取得金額はキャッシュで計算した増減をそのまま足す）
+    private static final String APPLY_DELTA_QUERY = "INSERT INTO kabu_players (uuid, period_id, kabu_amount, cost_basis) " +
+            "VALUES (?, ?, ?, 0) ON DUPLICATE KEY UPDATE " +
+            "cost_basis = GREATEST(0, cost_basis + ?), " +
+            "kabu_amount = kabu_amount + VALUES(kabu_amount)";
+
+    /**
+     * 精算の状態（kabu_players.settlement_state）: 未精算・入金中・入金済み
+     */
+    private static final int SETTLEMENT_UNPAID = 0;
+    private static final int SETTLEMENT_CLAIMED = 1;
+    private static final int SETTLEMENT_PAID = 2;
+
     private final Plugin plugin;
+    private final Supplier<Settings> settings;
     private HikariDataSource dataSource;
+    private Storage storage;
+    private ReadReplica replica;
+    private final AtomicReference<PriceSnapshot> priceSnapshot = new AtomicReference<>(PriceSnapshot.DEFAULT);
+    private final PriceHistory priceHistory;
+    private final QueryMetrics metrics = new QueryMetrics();
+    private final CircuitBreaker breaker;
 
-    public DatabaseManager(Plugin plugin) {
+    /**
+     * @param settings 現在の設定（DBまわりの部品は使うたびにここから読む）
+     */
+    public DatabaseManager(Plugin plugin, Supplier<Settings> settings) {
         this.plugin = plugin;
+        this.settings = settings;
+        this.priceHistory = new PriceHistory(settings.get().historyBufferSize());
+        this.breaker = new CircuitBreaker(plugin, settings, this::probe);
     }
 
     /**
-     * データベース接続を初期化
+     * 現在の設定
      */
-    public void initialize() {
-        HikariConfig config = new HikariConfig();
-
-        String host = plugin.getConfig().getString("mysql.host", "localhost");
-        int port = plugin.getConfig().getInt("mysql.port", 3306);
-        String database = plugin.getConfig().getString("mysql.database", "minecraft");
-        String username = plugin.getConfig().getString("mysql.username", "root");
-        String password = plugin.getConfig().getString("mysql.password", "password");
+    public Settings getSettings() {
+        return settings.get();
+    }
 
-        config.setJdbcUrl("jdbc:mysql://" + host + ":" + port + "/" + database + "?useSSL=false&serverTimezone=UTC");
-        config.setUsername(username);
-        config.setPassword(password);
+    /**
+     * 保存先への接続プールを作成（失敗した場合は例外を投げる）
+     */
+    public void initialize(Storage storage, Settings.Pool pool) {
+        this.storage = storage;
+        HikariConfig config = storage.createPoolConfig();
 
-        config.setMaximumPoolSize(plugin.getConfig().getInt("mysql.pool.maximum-pool-size", 10));
-        config.setMinimumIdle(plugin.getConfig().getInt("mysql.pool.minimum-idle", 2));
-        config.setConnectionTimeout(plugin.getConfig().getLong("mysql.pool.connection-timeout", 30000));
+        config.setMaximumPoolSize(pool.maximumPoolSize());
+        config.setMinimumIdle(pool.minimumIdle());
+        config.setConnectionTimeout(pool.connectionTimeout());
+        config.setMetricsTrackerFactory(metrics.trackerFactory());
 
-        config.addDataSourceProperty("cachePrepStmts", "true");
-        config.addDataSourceProperty("prepStmtCacheSize", "250");
-        config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
-        config.addDataSourceProperty("useServerPrepStmts", "true");
+        initialize(config);
 
-        try {
-            dataSource = new HikariDataSource(config);
-            plugin.getLogger().info("データベース接続に成功しました");
-            createTables();
-        } catch (Exception e) {
-            plugin.getLogger().log(Level.SEVERE, "データベース接続に失敗しました", e);
+        HikariConfig replicaConfig = storage.createReplicaPoolConfig();
+        if (replicaConfig != null) {
+            replicaConfig.setMaximumPoolSize(pool.maximumPoolSize());
+            replicaConfig.setMinimumIdle(pool.minimumIdle());
+            // レプリカが止まっているときにすぐプライマリへ切り替えられるよう、待ち時間は短くする
+            replicaConfig.setConnectionTimeout(settings.get().replica().connectionTimeout());
+            replicaConfig.setMetricsTrackerFactory(metrics.trackerFactory());
+            replica = new ReadReplica(plugin, settings, replicaConfig, this);
+            replica.start();
+            plugin.getLogger().info("読み込み専用のレプリカを設定しました（遅延を確認できるまではプライマリから読み込みます）");
         }
     }
 
     /**
-     * テーブルを作成
+     * 指定した設定で接続プールを作成（ベンチマークから組み込みDBを使う場合にも使う）
      */
-    private void createTables() {
-        String createPlayersTable = "CREATE TABLE IF NOT EXISTS kabu_players (" +
-                "uuid VARCHAR(36) PRIMARY KEY," +
-                "kabu_amount INT NOT NULL DEFAULT 0" +
-                ")";
+    void initialize(HikariConfig config) {
+        dataSource = new HikariDataSource(config);
+        plugin.getLogger().info("データベース接続に成功しました" + (storage != null ? " (" + storage.name() + ")" : ""));
+    }
 
-        String createPricesTable = "CREATE TABLE IF NOT EXISTS kabu_prices (" +
-                "id INT PRIMARY KEY DEFAULT 1," +
-                "current_price INT NOT NULL DEFAULT 100," +
-                "price_change INT NOT NULL DEFAULT 0," +
-                "last_update_day INT NOT NULL DEFAULT 1" +
-                ")";
+    /**
+     * 保存先（接続プールの設定を直接渡して作成した場合は null）
+     */
+    public Storage getStorage() {
+        return storage;
+    }
 
-        try (Connection conn = getConnection();
-                PreparedStatement stmt1 = conn.prepareStatement(createPlayersTable);
-                PreparedStatement stmt2 = conn.prepareStatement(createPricesTable)) {
-
-            stmt1.executeUpdate();
-            stmt2.executeUpdate();
-
-            // 初期価格データを挿入（存在しない場合のみ）
-            String insertInitialPrice = "INSERT INTO kabu_prices (id, current_price, price_change, last_update_day) " +
-                    "VALUES (1, 100, 0, 1) " +
-                    "ON DUPLICATE KEY UPDATE id=id";
-            try (PreparedStatement stmt3 = conn.prepareStatement(insertInitialPrice)) {
-                stmt3.executeUpdate();
-            }
+    /**
+     * 接続プールの設定を実行中のプールに反映する
+     * 使用中の接続はそのまま使わせ、減らした分は返却されたものから順に閉じられる
+     */
+    public void applyPoolSettings(Settings.Pool pool) {
+        if (dataSource == null || dataSource.isClosed()) {
+            return;
+        }
 
-            plugin.getLogger().info("データベーステーブルを作成しました");
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "テーブル作成に失敗しました", e);
+        HikariConfigMXBean config = dataSource.getHikariConfigMXBean();
+        applyPoolSize(config, pool);
+        config.setConnectionTimeout(pool.connectionTimeout());
+        if (replica != null) {
+            applyPoolSize(replica.dataSource().getHikariConfigMXBean(), pool);
         }
+
+        plugin.getLogger().info("接続プールの設定を反映しました (最大 " + pool.maximumPoolSize() + " / 最小 " +
+                pool.minimumIdle() + " / タイムアウト " + pool.connectionTimeout() + "ms)");
+    }
+
+    private static void applyPoolSize(HikariConfigMXBean config, Settings.Pool pool) {
+        // 最小数が最大数を超える瞬間ができないように、増やす場合は最大数から、減らす場合は最小数から変える
+        if (pool.maximumPoolSize() >= config.getMaximumPoolSize()) {
+            config.setMaximumPoolSize(pool.maximumPoolSize());
+            config.setMinimumIdle(pool.minimumIdle());
+        } else {
+            config.setMinimumIdle(pool.minimumIdle());
+            config.setMaximumPoolSize(pool.maximumPoolSize());
+        }
+    }
+
+    /**
+     * 読み込み専用のレプリカ（設定していなければ null）
+     */
+    public ReadReplica getReplica() {
+        return replica;
+    }
+
+    /**
+     * 接続プールの現在の状態（プールがなければ null）
+     */
+    public PoolStatus getPoolStatus() {
+        if (dataSource == null || dataSource.isClosed()) {
+            return null;
+        }
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        if (pool == null) {
+            return null;
+        }
+        return new PoolStatus(pool.getActiveConnections(), pool.getIdleConnections(), pool.getTotalConnections(),
+                pool.getThreadsAwaitingConnection(), dataSource.getHikariConfigMXBean().getMaximumPoolSize());
+    }
+
+    /**
+     * DB処理の計測値
+     */
+    public QueryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * DBに接続できる状態か（サーキットブレーカーが遮断中は false）
+     */
+    public boolean isAvailable() {
+        return !breaker.isOpen();
+    }
+
+    /**
+     * DB接続のサーキットブレーカー
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return breaker;
     }
 
     /**
      * データベース接続を取得
+     * サーキットブレーカーが遮断中は接続を待たずにすぐ例外を投げる
      */
     public Connection getConnection() throws SQLException {
         if (dataSource == null || dataSource.isClosed()) {
             throw new SQLException("データソースが初期化されていません");
         }
-        return dataSource.getConnection();
+        if (!breaker.allow()) {
+            throw new SQLTransientConnectionException("データベースに接続できないため、処理を中止しました");
+        }
+
+        Connection conn;
+        try {
+            conn = dataSource.getConnection();
+        } catch (SQLException e) {
+            breaker.failure();
+            throw e;
+        }
+        breaker.success();
+        return conn;
     }
 
     /**
-     * プレイヤーのカブ保有数を取得
+     * 読み込み専用のクエリに使う接続を取得
+     * 遅延が上限以内のレプリカがあればそちらから、なければプライマリから取得する
+     * 書き込みや、書いた直後の値をキャッシュに読み込む処理では使わない
+     */
+    public Connection getReadConnection() throws SQLException {
+        if (replica != null) {
+            Connection conn = replica.getConnection();
+            if (conn != null) {
+                return conn;
+            }
+        }
+        return getConnection();
+    }
+
+    /**
+     * 遮断中にDBへ接続できるかを確認（サーキットブレーカーを通さずに接続する）
+     */
+    private boolean probe() {
+        if (dataSource == null || dataSource.isClosed()) {
+            return false;
+        }
+        try (Connection conn = dataSource.getConnection()) {
+            return conn.isValid(5);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * プレイヤーのカブ保有数を取得（レプリカから読むことがあるので、キャッシュへの読み込みには使わない）
      */
     public int getPlayerKabu(UUID uuid) {
-        String query = "SELECT kabu_amount FROM kabu_players WHERE uuid = ?";
-        try (Connection conn = getConnection();
+        String query = "SELECT kabu_amount FROM kabu_players WHERE uuid = ? AND period_id = ?";
+        long start = System.nanoTime();
+        try (Connection conn = getReadConnection();
                 PreparedStatement stmt = conn.prepareStatement(query)) {
 
-            stmt.setString(1, uuid.toString());
+            UuidUtil.bind(stmt, 1, uuid);
+            stmt.setInt(2, currentPeriod());
             ResultSet rs = stmt.executeQuery();
 
             if (rs.next()) {
@@ -126,6 +273,33 @@ public class DatabaseManager {
         } catch (SQLException e) {
             plugin.getLogger().log(Level.SEVERE, "カブ保有数の取得に失敗しました: " + uuid, e);
             return 0;
+        } finally {
+            metrics.record(Query.GET_PLAYER_KABU, start);
+        }
+    }
+
+    /**
+     * プレイヤーの今期の持ち高を取得（取得に失敗した場合は null）
+     */
+    public Position getPosition(UUID uuid) {
+        String query = "SELECT kabu_amount, cost_basis, realized_profit FROM kabu_players WHERE uuid = ? AND period_id = ?";
+        long start = System.nanoTime();
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(query)) {
+
+            UuidUtil.bind(stmt, 1, uuid);
+            stmt.setInt(2, currentPeriod());
+            ResultSet rs = stmt.executeQuery();
+
+            if (rs.next()) {
+                return new Position(rs.getInt("kabu_amount"), rs.getLong("cost_basis"), rs.getLong("realized_profit"));
+            }
+            return Position.EMPTY;
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "カブ保有数の取得に失敗しました: " + uuid, e);
+            return null;
+        } finally {
+            metrics.record(Query.GET_POSITION, start);
         }
     }
 
@@ -133,18 +307,22 @@ public class DatabaseManager {
      * プレイヤーのカブ保有数を設定
      */
     public void setPlayerKabu(UUID uuid, int amount) {
-        String query = "INSERT INTO kabu_players (uuid, kabu_amount) VALUES (?, ?) " +
+        String query = "INSERT INTO kabu_players (uuid, period_id, kabu_amount) VALUES (?, ?, ?) " +
                 "ON DUPLICATE KEY UPDATE kabu_amount = ?";
 
+        long start = System.nanoTime();
         try (Connection conn = getConnection();
                 PreparedStatement stmt = conn.prepareStatement(query)) {
 
-            stmt.setString(1, uuid.toString());
-            stmt.setInt(2, amount);
+            UuidUtil.bind(stmt, 1, uuid);
+            stmt.setInt(2, currentPeriod());
             stmt.setInt(3, amount);
+            stmt.setInt(4, amount);
             stmt.executeUpdate();
         } catch (SQLException e) {
             plugin.getLogger().log(Level.SEVERE, "カブ保有数の設定に失敗しました: " + uuid, e);
+        } finally {
+            metrics.record(Query.SET_PLAYER_KABU, start);
         }
     }
 
@@ -152,129 +330,936 @@ public class DatabaseManager {
      * プレイヤーのカブ保有数を増減
      */
     public void addPlayerKabu(UUID uuid, int amount) {
-        int current = getPlayerKabu(uuid);
-        setPlayerKabu(uuid, current + amount);
+        long start = System.nanoTime();
+        try (Connection conn = getConnection()) {
+            incrementKabu(conn, uuid, currentPeriod(), amount, 0);
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "カブ保有数の増減に失敗しました: " + uuid, e);
+        } finally {
+            metrics.record(Query.ADD_PLAYER_KABU, start);
+        }
+    }
+
+    /**
+     * 売買を1トランザクションで反映し、反映後の保有数を返す
+     * 減らす場合は保有数が足りるときだけ反映する
+     * 買いは取得金額に加え、売りは平均取得単価との差を確定損益にする
+     *
+     * @param carried まだ反映していない増減（キャッシュから持ち越した分）
+     * @param delta   売買による増減
+     * @param price   売買したときのカブ価
+     */
+    public TradeResult executeTrade(UUID uuid, HoldingDelta carried, int delta, int price) {
+        // MySQL は SET を左から順に評価するので、保有数は最後に減らす
+        String decrement = "UPDATE kabu_players SET " +
+                "realized_profit = realized_profit + ? - FLOOR(cost_basis * ? / kabu_amount), " +
+                "cost_basis = cost_basis - FLOOR(cost_basis * ? / kabu_amount), " +
+                "kabu_amount = kabu_amount - ? " +
+                "WHERE uuid = ? AND period_id = ? AND kabu_amount >= ?";
+        String select = "SELECT kabu_amount, cost_basis, realized_profit FROM kabu_players WHERE uuid = ? AND period_id = ?";
+        int period = currentPeriod();
+
+        long start = System.nanoTime();
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                if (!carried.isEmpty()) {
+                    applyDelta(conn, uuid, period, carried);
+                }
+
+                // 取り消しに備えて売買の直前の持ち高を記録する（行をロックして他の更新と混ざらないようにする）
+                Position previous = Position.EMPTY;
+                try (PreparedStatement stmt = conn.prepareStatement(select + " FOR UPDATE")) {
+                    UuidUtil.bind(stmt, 1, uuid);
+                    stmt.setInt(2, period);
+                    ResultSet rs = stmt.executeQuery();
+                    if (rs.next()) {
+                        previous = new Position(rs.getInt("kabu_amount"), rs.getLong("cost_basis"), rs.getLong("realized_profit"));
+                    }
+                }
+
+                if (delta >= 0) {
+                    incrementKabu(conn, uuid, period, delta, (long) delta * price);
+                } else {
+                    int sold = -delta;
+                    try (PreparedStatement stmt = conn.prepareStatement(decrement)) {
+                        stmt.setLong(1, (long) sold * price);
+                        stmt.setInt(2, sold);
+                        stmt.setInt(3, sold);
+                        stmt.setInt(4, sold);
+                        UuidUtil.bind(stmt, 5, uuid);
+                        stmt.setInt(6, period);
+                        stmt.setInt(7, sold);
+                        if (stmt.executeUpdate() == 0) {
+                            conn.rollback();
+                            return TradeResult.insufficient();
+                        }
+                    }
+                }
+
+                TradeResult result = TradeResult.success(0, 0, 0, period, previous);
+                try (PreparedStatement stmt = conn.prepareStatement(select)) {
+                    UuidUtil.bind(stmt, 1, uuid);
+                    stmt.setInt(2, period);
+                    ResultSet rs = stmt.executeQuery();
+                    if (rs.next()) {
+                        result = TradeResult.success(rs.getInt("kabu_amount"), rs.getLong("cost_basis"),
+                                rs.getLong("realized_profit"), period, previous);
+                    }
+                }
+
+                conn.commit();
+                return result;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "売買の反映に失敗しました: " + uuid, e);
+            return TradeResult.failed();
+        } finally {
+            metrics.record(Query.EXECUTE_TRADE, start);
+        }
+    }
+
+    /**
+     * 反映済みの売買を取り消し、保有数・取得金額・確定損益を売買の直前の値に戻す
+     * 売買とは逆向きの売買として計算し直すのではなく、売買で変わった分だけをそのまま差し引くので、
+     * 取り消しによって確定損益や平均取得単価が変わることはない（売買の後に行われた別の増減はそのまま残る）
+     *
+     * @param trade 取り消す売買の結果
+     * @return 取り消し後の持ち高（失敗した場合は失敗の結果）
+     */
+    public TradeResult revertTrade(UUID uuid, TradeResult trade) {
+        Position previous = trade.previous();
+        int amount = trade.balance() - previous.amount();
+        String update = "UPDATE kabu_players SET " +
+                "kabu_amount = kabu_amount - ?, cost_basis = cost_basis - ?, realized_profit = realized_profit - ? " +
+                "WHERE uuid = ? AND period_id = ? AND kabu_amount >= ?";
+        String select = "SELECT kabu_amount, cost_basis, realized_profit FROM kabu_players WHERE uuid = ? AND period_id = ?";
+
+        long start = System.nanoTime();
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement stmt = conn.prepareStatement(update)) {
+                    stmt.setInt(1, amount);
+                    stmt.setLong(2, trade.costBasis() - previous.costBasis());
+                    stmt.setLong(3, trade.realizedProfit() - previous.realizedProfit());
+                    UuidUtil.bind(stmt, 4, uuid);
+                    stmt.setInt(5, trade.period());
+                    stmt.setInt(6, amount);
+                    if (stmt.executeUpdate() == 0) {
+                        conn.rollback();
+                        return TradeResult.insufficient();
+                    }
+                }
+
+                TradeResult result = TradeResult.success(0, 0, 0, trade.period(), previous);
+                try (PreparedStatement stmt = conn.prepareStatement(select)) {
+                    UuidUtil.bind(stmt, 1, uuid);
+                    stmt.setInt(2, trade.period());
+                    ResultSet rs = stmt.executeQuery();
+                    if (rs.next()) {
+                        result = TradeResult.success(rs.getInt("kabu_amount"), rs.getLong("cost_basis"),
+                                rs.getLong("realized_profit"), trade.period(), previous);
+                    }
+                }
+
+                conn.commit();
+                return result;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "売買の取り消しに失敗しました: " + uuid, e);
+            return TradeResult.failed();
+        } finally {
+            metrics.record(Query.REVERT_TRADE, start);
+        }
+    }
+
+    private void incrementKabu(Connection conn, UUID uuid, int period, int amount, long cost) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(INCREMENT_QUERY)) {
+            UuidUtil.bind(stmt, 1, uuid);
+            stmt.setInt(2, period);
+            stmt.setInt(3, amount);
+            stmt.setLong(4, cost);
+            stmt.executeUpdate();
+        }
+    }
+
+    private void applyDelta(Connection conn, UUID uuid, int period, HoldingDelta delta) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(APPLY_DELTA_QUERY)) {
+            bindDelta(stmt, uuid, period, delta);
+            stmt.executeUpdate();
+        }
+    }
+
+    private static void bindDelta(PreparedStatement stmt, UUID uuid, int period, HoldingDelta delta) throws SQLException {
+        UuidUtil.bind(stmt, 1, uuid);
+        stmt.setInt(2, period);
+        stmt.setInt(3, delta.amount());
+        stmt.setLong(4, delta.costBasis());
+    }
+
+    /**
+     * 複数プレイヤーの持ち高の増減をまとめて反映
+     */
+    public boolean addPlayerKabuBatch(Map<UUID, HoldingDelta> deltas) {
+        int period = currentPeriod();
+
+        long start = System.nanoTime();
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(APPLY_DELTA_QUERY)) {
+
+            conn.setAutoCommit(false);
+            try {
+                for (Map.Entry<UUID, HoldingDelta> entry : deltas.entrySet()) {
+                    bindDelta(stmt, entry.getKey(), period, entry.getValue());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            return true;
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "カブ保有数の一括反映に失敗しました: " + deltas.size() + "件", e);
+            return false;
+        } finally {
+            metrics.record(Query.ADD_PLAYER_KABU_BATCH, start);
+        }
+    }
+
+    /**
+     * 売買の記録をまとめて台帳へ追加
+     */
+    public boolean insertTrades(List<TradeLedger.Entry> entries) {
+        String query = "INSERT INTO kabu_trades (uuid, side, amount, price, balance, created_at) VALUES (?, ?, ?, ?, ?, ?)";
+
+        long start = System.nanoTime();
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(query)) {
+
+            for (TradeLedger.Entry entry : entries) {
+                UuidUtil.bind(stmt, 1, entry.uuid());
+                stmt.setString(2, entry.side().name());
+                stmt.setInt(3, entry.amount());
+                stmt.setInt(4, entry.price());
+                stmt.setInt(5, entry.balance());
+                stmt.setTimestamp(6, new Timestamp(entry.time()));
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            return true;
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "台帳への書き込みに失敗しました: " + entries.size() + "件", e);
+            return false;
+        } finally {
+            metrics.record(Query.INSERT_TRADES, start);
+        }
+    }
+
+    /**
+     * 新しい期間を開始し、新しい価格を設定
+     * 古い期間の保有数は0として扱われ、後でバックグラウンドで削除される
+     *
+     * @param settlementPrice 終了する期間を精算する終値（精算しない場合は0）
+     */
+    public boolean startNewPeriod(int currentPrice, int priceChange, LocalDate updateDate, int settlementPrice) {
+        String query = "UPDATE kabu_prices SET current_period = current_period + 1, current_price = ?, " +
+                "price_change = ?, open_price = ?, last_update_day = ?, last_update_date = ? WHERE id = 1";
+        String settlement = "INSERT IGNORE INTO kabu_settlements (period_id, price) VALUES (?, ?)";
+        long now = System.currentTimeMillis();
+        int endedPeriod = currentPeriod();
+
+        long start = System.nanoTime();
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(query)) {
+                stmt.setInt(1, currentPrice);
+                stmt.setInt(2, priceChange);
+                stmt.setInt(3, currentPrice);
+                stmt.setInt(4, updateDate.getDayOfMonth());
+                stmt.setObject(5, updateDate);
+                stmt.executeUpdate();
+                insertHistory(conn, now, currentPrice, priceChange, endedPeriod + 1);
+
+                // 精算の予定を期間の切り替えと同時に記録する（途中で落ちても再開できる）
+                if (settlementPrice > 0) {
+                    try (PreparedStatement insert = conn.prepareStatement(settlement)) {
+                        insert.setInt(1, endedPeriod);
+                        insert.setInt(2, settlementPrice);
+                        insert.executeUpdate();
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+
+            PriceSnapshot snapshot = priceSnapshot.updateAndGet(current ->
+                    current.nextPeriod(currentPrice, priceChange, updateDate));
+            priceHistory.record(now, currentPrice, priceChange);
+            plugin.getLogger().info("新しい期間を開始しました: " + snapshot.period());
+            return true;
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "新しい期間の開始に失敗しました", e);
+            return false;
+        } finally {
+            metrics.record(Query.START_NEW_PERIOD, start);
+        }
+    }
+
+    /**
+     * 完了していない精算のうち最も古いものを取得（なければ null）
+     */
+    public SettlementJob getPendingSettlement() {
+        String query = "SELECT period_id, price, last_uuid, settled_count, settled_total FROM kabu_settlements " +
+                "WHERE completed_at IS NULL ORDER BY period_id LIMIT 1";
+        long start = System.nanoTime();
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(query)) {
+
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                byte[] lastUuid = rs.getBytes("last_uuid");
+                return new SettlementJob(rs.getInt("period_id"), rs.getInt("price"),
+                        lastUuid != null ? UuidUtil.fromBytes(lastUuid) : null, rs.getInt("settled_count"),
+                        rs.getLong("settled_total"));
+            }
+            return null;
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "精算の状態の取得に失敗しました", e);
+            return null;
+        } finally {
+            metrics.record(Query.GET_PENDING_SETTLEMENT, start);
+        }
+    }
+
+    /**
+     * 精算する保有数を after の次から UUID 順に最大 limit 件取得し、入金中の印を付ける（取得に失敗した場合は null）
+     * 入金より先に印を付けてコミットするので、入金の途中で止まっても同じプレイヤーへ二重に入金することはない
+     * （印が付いたまま入金が確認できなかった行は {@link #getUnconfirmedSettlements} で確認する）
+     */
+    public Map<UUID, Integer> claimSettlementPage(int period, UUID after, int limit) {
+        String query = "SELECT uuid, kabu_amount FROM kabu_players WHERE period_id = ? AND kabu_amount > 0 " +
+                "AND settlement_state = " + SETTLEMENT_UNPAID + (after != null ? " AND uuid > ?" : "") +
+                " ORDER BY uuid LIMIT ? FOR UPDATE";
+        String progress = "UPDATE kabu_settlements SET last_uuid = ? WHERE period_id = ?";
+        Map<UUID, Integer> page = new LinkedHashMap<>();
+
+        long start = System.nanoTime();
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement stmt = conn.prepareStatement(query)) {
+                    int index = 1;
+                    stmt.setInt(index++, period);
+                    if (after != null) {
+                        UuidUtil.bind(stmt, index++, after);
+                    }
+                    stmt.setInt(index, limit);
+                    ResultSet rs = stmt.executeQuery();
+                    while (rs.next()) {
+                        page.put(UuidUtil.read(rs, "uuid"), rs.getInt("kabu_amount"));
+                    }
+                }
+
+                if (!page.isEmpty()) {
+                    setSettlementState(conn, period, page.keySet(), SETTLEMENT_CLAIMED);
+                    try (PreparedStatement stmt = conn.prepareStatement(progress)) {
+                        UuidUtil.bind(stmt, 1, List.copyOf(page.keySet()).get(page.size() - 1));
+                        stmt.setInt(2, period);
+                        stmt.executeUpdate();
+                    }
+                }
+
+                conn.commit();
+                return page;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "精算する保有数の取得に失敗しました: 期間" + period, e);
+            return null;
+        } finally {
+            metrics.record(Query.CLAIM_SETTLEMENT_PAGE, start);
+        }
+    }
+
+    /**
+     * 入金の結果を記録（入金した行は入金済みにし、入金を断られた行は未精算に戻す）
+     */
+    public boolean saveSettlementProgress(int period, Collection<UUID> paid, Collection<UUID> refused, int count, long total) {
+        String query = "UPDATE kabu_settlements SET settled_count = settled_count + ?, " +
+                "settled_total = settled_total + ? WHERE period_id = ?";
+        long start = System.nanoTime();
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                setSettlementState(conn, period, paid, SETTLEMENT_PAID);
+                setSettlementState(conn, period, refused, SETTLEMENT_UNPAID);
+                try (PreparedStatement stmt = conn.prepareStatement(query)) {
+                    stmt.setInt(1, count);
+                    stmt.setLong(2, total);
+                    stmt.setInt(3, period);
+                    stmt.executeUpdate();
+                }
+                conn.commit();
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "精算の進み具合の記録に失敗しました: 期間" + period, e);
+            return false;
+        } finally {
+            metrics.record(Query.SAVE_SETTLEMENT_PROGRESS, start);
+        }
+    }
+
+    /**
+     * 入金中の印を付けたまま入金しなかった行を未精算に戻す（精算を中断するときに使う）
+     */
+    public boolean releaseSettlement(int period, Collection<UUID> uuids) {
+        if (uuids.isEmpty()) {
+            return true;
+        }
+        long start = System.nanoTime();
+        try (Connection conn = getConnection()) {
+            setSettlementState(conn, period, uuids, SETTLEMENT_UNPAID);
+            return true;
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "精算の中断の記録に失敗しました: 期間" + period, e);
+            return false;
+        } finally {
+            metrics.record(Query.RELEASE_SETTLEMENT, start);
+        }
     }
 
     /**
-     * 全プレイヤーのカブをクリア
+     * 入金中の印が付いたまま入金を確認できていない行（入金の途中で止まった場合に残る、取得に失敗した場合は null）
      */
-    public void clearAllKabu() {
-        String query = "DELETE FROM kabu_players";
+    public Map<UUID, Integer> getUnconfirmedSettlements(int period) {
+        String query = "SELECT uuid, kabu_amount FROM kabu_players WHERE period_id = ? AND settlement_state = " +
+                SETTLEMENT_CLAIMED + " ORDER BY uuid";
+        Map<UUID, Integer> rows = new LinkedHashMap<>();
+
+        long start = System.nanoTime();
         try (Connection conn = getConnection();
                 PreparedStatement stmt = conn.prepareStatement(query)) {
 
+            stmt.setInt(1, period);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                rows.put(UuidUtil.read(rs, "uuid"), rs.getInt("kabu_amount"));
+            }
+            return rows;
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "入金を確認できていない精算の取得に失敗しました: 期間" + period, e);
+            return null;
+        } finally {
+            metrics.record(Query.GET_UNCONFIRMED_SETTLEMENTS, start);
+        }
+    }
+
+    /**
+     * 入金中の印が付いたままの行を管理者の確認結果で片付ける（片付けた人数を返し、失敗した場合は -1）
+     * 入金を確認できた行は入金済みにして精算の合計に加え、入金されていなかった行は未精算に戻して精算をやり直す
+     *
+     * @param rows {@link #getUnconfirmedSettlements} で取得した UUID → 保有数
+     * @param paid 入金を確認できた場合は true
+     */
+    public int resolveUnconfirmedSettlements(int period, Map<UUID, Integer> rows, boolean paid) {
+        String state = "UPDATE kabu_players SET settlement_state = ? WHERE uuid = ? AND period_id = ? " +
+                "AND settlement_state = " + SETTLEMENT_CLAIMED;
+        String settled = "UPDATE kabu_settlements SET settled_count = settled_count + ?, " +
+                "settled_total = settled_total + ? * price WHERE period_id = ?";
+        // 完了済みの精算でも、未精算に戻した行を入金するためにもう一度開始する
+        String reopen = "UPDATE kabu_settlements SET completed_at = NULL WHERE period_id = ?";
+
+        long start = System.nanoTime();
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                int resolved = 0;
+                long amount = 0;
+                // 確認している間に状態が変わった行は数えない
+                try (PreparedStatement stmt = conn.prepareStatement(state)) {
+                    for (Map.Entry<UUID, Integer> row : rows.entrySet()) {
+                        stmt.setInt(1, paid ? SETTLEMENT_PAID : SETTLEMENT_UNPAID);
+                        UuidUtil.bind(stmt, 2, row.getKey());
+                        stmt.setInt(3, period);
+                        if (stmt.executeUpdate() > 0) {
+                            resolved++;
+                            amount += row.getValue();
+                        }
+                    }
+                }
+                if (resolved > 0 && paid) {
+                    try (PreparedStatement stmt = conn.prepareStatement(settled)) {
+                        stmt.setInt(1, resolved);
+                        stmt.setLong(2, amount);
+                        stmt.setInt(3, period);
+                        stmt.executeUpdate();
+                    }
+                } else if (resolved > 0) {
+                    try (PreparedStatement stmt = conn.prepareStatement(reopen)) {
+                        stmt.setInt(1, period);
+                        stmt.executeUpdate();
+                    }
+                }
+                conn.commit();
+                return resolved;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "入金を確認できていない精算の記録に失敗しました: 期間" + period, e);
+            return -1;
+        } finally {
+            metrics.record(Query.RESOLVE_UNCONFIRMED_SETTLEMENTS, start);
+        }
+    }
+
+    private void setSettlementState(Connection conn, int period, Collection<UUID> uuids, int state) throws SQLException {
+        if (uuids.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "UPDATE kabu_players SET settlement_state = ? WHERE uuid = ? AND period_id = ?")) {
+            for (UUID uuid : uuids) {
+                stmt.setInt(1, state);
+                UuidUtil.bind(stmt, 2, uuid);
+                stmt.setInt(3, period);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    /**
+     * 精算を完了にする
+     */
+    public void completeSettlement(int period) {
+        String query = "UPDATE kabu_settlements SET completed_at = CURRENT_TIMESTAMP WHERE period_id = ?";
+        long start = System.nanoTime();
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(query)) {
+
+            stmt.setInt(1, period);
             stmt.executeUpdate();
-            plugin.getLogger().info("全プレイヤーのカブをクリアしました");
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "カブクリアに失敗しました", e);
+            plugin.getLogger().log(Level.SEVERE, "精算の完了の記録に失敗しました: 期間" + period, e);
+        } finally {
+            metrics.record(Query.COMPLETE_SETTLEMENT, start);
+        }
+    }
+
+    /**
+     * 終了した期間の保有数を指定件数まで削除し、削除した件数を返す
+     * 精算が終わっていない期間は残す
+     */
+    public int pruneOldPeriods(int limit) {
+        String query = "DELETE FROM kabu_players WHERE period_id < ? " +
+                "AND period_id NOT IN (SELECT period_id FROM kabu_settlements WHERE completed_at IS NULL) LIMIT ?";
+        long start = System.nanoTime();
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(query)) {
+
+            stmt.setInt(1, currentPeriod());
+            stmt.setInt(2, limit);
+            return stmt.executeUpdate();
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "古い期間の保有数の削除に失敗しました", e);
+            return 0;
+        } finally {
+            metrics.record(Query.PRUNE_OLD_PERIODS, start);
         }
     }
 
     /**
-     * カブ保有数ランキングを取得
+     * カブ保有数ランキングを取得（レプリカから読むことがある）
      */
     public Map<UUID, Integer> getTopPlayers(int limit) {
-        String query = "SELECT uuid, kabu_amount FROM kabu_players ORDER BY kabu_amount DESC LIMIT ?";
-        Map<UUID, Integer> topPlayers = new HashMap<>();
+        String query = "SELECT uuid, kabu_amount FROM kabu_players WHERE period_id = ? ORDER BY kabu_amount DESC LIMIT ?";
+        Map<UUID, Integer> topPlayers = new LinkedHashMap<>();
 
-        try (Connection conn = getConnection();
+        long start = System.nanoTime();
+        try (Connection conn = getReadConnection();
                 PreparedStatement stmt = conn.prepareStatement(query)) {
 
-            stmt.setInt(1, limit);
+            stmt.setInt(1, currentPeriod());
+            stmt.setInt(2, limit);
             ResultSet rs = stmt.executeQuery();
 
             while (rs.next()) {
-                UUID uuid = UUID.fromString(rs.getString("uuid"));
+                UUID uuid = UuidUtil.read(rs, "uuid");
                 int amount = rs.getInt("kabu_amount");
                 topPlayers.put(uuid, amount);
             }
         } catch (SQLException e) {
             plugin.getLogger().log(Level.SEVERE, "ランキング取得に失敗しました", e);
+        } finally {
+            metrics.record(Query.GET_TOP_PLAYERS, start);
         }
 
         return topPlayers;
     }
 
     /**
-     * 現在のカブ価格を取得
+     * 今期の確定損益ランキングを取得（レプリカから読むことがある）
      */
-    public int getCurrentPrice() {
-        String query = "SELECT current_price FROM kabu_prices WHERE id = 1";
+    public Map<UUID, Long> getTopEarners(int limit) {
+        String query = "SELECT uuid, realized_profit FROM kabu_players WHERE period_id = ? AND realized_profit > 0 " +
+                "ORDER BY realized_profit DESC LIMIT ?";
+        Map<UUID, Long> earners = new LinkedHashMap<>();
+
+        long start = System.nanoTime();
+        try (Connection conn = getReadConnection();
+                PreparedStatement stmt = conn.prepareStatement(query)) {
+
+            stmt.setInt(1, currentPeriod());
+            stmt.setInt(2, limit);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                earners.put(UuidUtil.read(rs, "uuid"), rs.getLong("realized_profit"));
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "損益ランキングの取得に失敗しました", e);
+        } finally {
+            metrics.record(Query.GET_TOP_EARNERS, start);
+        }
+        return earners;
+    }
+
+    /**
+     * 価格データをDBから読み込み直す
+     */
+    public void reloadPriceSnapshot() {
+        String query = "SELECT current_price, price_change, open_price, last_update_day, last_update_date, current_period " +
+                "FROM kabu_prices WHERE id = 1";
+        long start = System.nanoTime();
         try (Connection conn = getConnection();
                 PreparedStatement stmt = conn.prepareStatement(query)) {
 
             ResultSet rs = stmt.executeQuery();
             if (rs.next()) {
-                return rs.getInt("current_price");
+                int price = rs.getInt("current_price");
+                int change = rs.getInt("price_change");
+                int openPrice = rs.getInt("open_price");
+                int lastUpdateDay = rs.getInt("last_update_day");
+                LocalDate lastUpdateDate = rs.getObject("last_update_date", LocalDate.class);
+                int period = rs.getInt("current_period");
+                priceSnapshot.updateAndGet(current -> new PriceSnapshot(price, change, openPrice, lastUpdateDay, lastUpdateDate,
+                        period, current.version() + 1));
             }
-            return 100; // デフォルト値
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "価格取得に失敗しました", e);
-            return 100;
+            plugin.getLogger().log(Level.SEVERE, "価格データの読み込みに失敗しました", e);
+        } finally {
+            metrics.record(Query.RELOAD_PRICE_SNAPSHOT, start);
         }
     }
 
     /**
-     * 価格変動を取得
+     * 現在の価格データを取得（DBアクセスなし）
      */
-    public int getPriceChange() {
-        String query = "SELECT price_change FROM kabu_prices WHERE id = 1";
+    public PriceSnapshot getPriceSnapshot() {
+        return priceSnapshot.get();
+    }
+
+    /**
+     * 指定したプレイヤーの保有数を1回のクエリでまとめて取得（記録がないプレイヤーは含まれない、レプリカから読むことがある）
+     */
+    public Map<UUID, Integer> getPlayerKabuBatch(Collection<UUID> uuids) {
+        Map<UUID, Integer> holdings = new HashMap<>();
+        if (uuids.isEmpty()) {
+            return holdings;
+        }
+
+        String query = "SELECT uuid, kabu_amount FROM kabu_players WHERE period_id = ? AND uuid IN (" +
+                String.join(", ", Collections.nCopies(uuids.size(), "?")) + ")";
+        long start = System.nanoTime();
+        try (Connection conn = getReadConnection();
+                PreparedStatement stmt = conn.prepareStatement(query)) {
+
+            stmt.setInt(1, currentPeriod());
+            int index = 2;
+            for (UUID uuid : uuids) {
+                UuidUtil.bind(stmt, index++, uuid);
+            }
+
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                holdings.put(UuidUtil.read(rs, "uuid"), rs.getInt("kabu_amount"));
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "保有数の一括取得に失敗しました: " + uuids.size() + "件", e);
+        } finally {
+            metrics.record(Query.GET_PLAYER_KABU_BATCH, start);
+        }
+        return holdings;
+    }
+
+    /**
+     * カブを持っている全プレイヤーの保有数を取得（ランキングの読み込み用）
+     */
+    public Map<UUID, Integer> getAllHoldings() {
+        String query = "SELECT uuid, kabu_amount FROM kabu_players WHERE period_id = ? AND kabu_amount > 0";
+        Map<UUID, Integer> holdings = new HashMap<>();
+
+        long start = System.nanoTime();
         try (Connection conn = getConnection();
                 PreparedStatement stmt = conn.prepareStatement(query)) {
 
+            stmt.setInt(1, currentPeriod());
+
             ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                return rs.getInt("price_change");
+            while (rs.next()) {
+                holdings.put(UuidUtil.read(rs, "uuid"), rs.getInt("kabu_amount"));
             }
-            return 0;
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "価格変動取得に失敗しました", e);
-            return 0;
+            plugin.getLogger().log(Level.SEVERE, "保有数一覧の取得に失敗しました", e);
+        } finally {
+            metrics.record(Query.GET_ALL_HOLDINGS, start);
         }
+
+        return holdings;
     }
 
     /**
-     * 最終更新日を取得
+     * 記録済みの全プレイヤー名を取得
      */
-    public int getLastUpdateDay() {
-        String query = "SELECT last_update_day FROM kabu_prices WHERE id = 1";
+    public Map<UUID, String> getAllNames() {
+        String query = "SELECT uuid, name FROM kabu_names ORDER BY updated_at";
+        Map<UUID, String> names = new LinkedHashMap<>();
+
+        long start = System.nanoTime();
         try (Connection conn = getConnection();
                 PreparedStatement stmt = conn.prepareStatement(query)) {
 
             ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                return rs.getInt("last_update_day");
+            while (rs.next()) {
+                names.put(UuidUtil.read(rs, "uuid"), rs.getString("name"));
             }
-            return 1;
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "最終更新日取得に失敗しました", e);
-            return 1;
+            plugin.getLogger().log(Level.SEVERE, "プレイヤー名一覧の取得に失敗しました", e);
+        } finally {
+            metrics.record(Query.GET_ALL_NAMES, start);
         }
+
+        return names;
     }
 
     /**
-     * 価格データを更新
+     * プレイヤー名を記録
      */
-    public void updatePrice(int currentPrice, int priceChange, int lastUpdateDay) {
-        String query = "UPDATE kabu_prices SET current_price = ?, price_change = ?, last_update_day = ? WHERE id = 1";
+    public void saveName(UUID uuid, String name) {
+        String query = "INSERT INTO kabu_names (uuid, name) VALUES (?, ?) " +
+                "ON DUPLICATE KEY UPDATE name = VALUES(name)";
 
+        long start = System.nanoTime();
         try (Connection conn = getConnection();
                 PreparedStatement stmt = conn.prepareStatement(query)) {
 
-            stmt.setInt(1, currentPrice);
-            stmt.setInt(2, priceChange);
-            stmt.setInt(3, lastUpdateDay);
+            UuidUtil.bind(stmt, 1, uuid);
+            stmt.setString(2, name);
             stmt.executeUpdate();
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "プレイヤー名の記録に失敗しました: " + uuid, e);
+        } finally {
+            metrics.record(Query.SAVE_NAME, start);
+        }
+    }
+
+    /**
+     * 現在の期間
+     */
+    public int currentPeriod() {
+        return priceSnapshot.get().period();
+    }
+
+    /**
+     * 現在のカブ価格を取得
+     */
+    public int getCurrentPrice() {
+        return priceSnapshot.get().price();
+    }
+
+    /**
+     * 価格変動を取得
+     */
+    public int getPriceChange() {
+        return priceSnapshot.get().change();
+    }
+
+    /**
+     * 最終更新日を取得
+     */
+    public int getLastUpdateDay() {
+        return priceSnapshot.get().lastUpdateDay();
+    }
+
+    /**
+     * 日付の切り替わりによる価格データの更新（新しい価格をその日の始値として記録する）
+     */
+    public boolean updatePrice(int currentPrice, int priceChange, LocalDate updateDate) {
+        String query = "UPDATE kabu_prices SET current_price = ?, price_change = ?, open_price = ?, last_update_day = ?, " +
+                "last_update_date = ? WHERE id = 1";
+        long now = System.currentTimeMillis();
+
+        long start = System.nanoTime();
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(query)) {
+                stmt.setInt(1, currentPrice);
+                stmt.setInt(2, priceChange);
+                stmt.setInt(3, currentPrice);
+                stmt.setInt(4, updateDate.getDayOfMonth());
+                stmt.setObject(5, updateDate);
+                stmt.executeUpdate();
+                insertHistory(conn, now, currentPrice, priceChange, currentPeriod());
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+
+            priceSnapshot.updateAndGet(current -> current.next(currentPrice, priceChange, updateDate));
+            priceHistory.record(now, currentPrice, priceChange);
+            return true;
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "価格更新に失敗しました", e);
+            return false;
+        } finally {
+            metrics.record(Query.UPDATE_PRICE, start);
+        }
+    }
+
+    /**
+     * 価格と増減だけを更新（始値と最終更新日はそのまま）
+     */
+    public boolean updatePrice(int currentPrice, int priceChange) {
+        String query = "UPDATE kabu_prices SET current_price = ?, price_change = ? WHERE id = 1";
+        long now = System.currentTimeMillis();
+
+        long start = System.nanoTime();
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(query)) {
+                stmt.setInt(1, currentPrice);
+                stmt.setInt(2, priceChange);
+                stmt.executeUpdate();
+                insertHistory(conn, now, currentPrice, priceChange, currentPeriod());
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+
+            priceSnapshot.updateAndGet(current -> current.next(currentPrice, priceChange));
+            priceHistory.record(now, currentPrice, priceChange);
+            return true;
         } catch (SQLException e) {
             plugin.getLogger().log(Level.SEVERE, "価格更新に失敗しました", e);
+            return false;
+        } finally {
+            metrics.record(Query.UPDATE_PRICE, start);
         }
     }
 
+    /**
+     * 価格履歴に1件追加（追記のみ）
+     */
+    private void insertHistory(Connection conn, long time, int price, int change, int period) throws SQLException {
+        String query = "INSERT INTO kabu_price_history (recorded_at, price, price_change, period_id) VALUES (?, ?, ?, ?)";
+
+        try (PreparedStatement stmt = conn.prepareStatement(query)) {
+            stmt.setTimestamp(1, new Timestamp(time));
+            stmt.setInt(2, price);
+            stmt.setInt(3, change);
+            stmt.setInt(4, period);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * 直近の価格履歴をリングバッファに読み込む
+     */
+    public void loadPriceHistory() {
+        List<PriceHistory.Point> points = getPriceHistory(0, priceHistory.capacity());
+        Collections.reverse(points);
+        priceHistory.load(points);
+    }
+
+    /**
+     * 価格履歴を新しい順に offset 件飛ばして最大 limit 件取得（レプリカから読むことがある）
+     */
+    public List<PriceHistory.Point> getPriceHistory(int offset, int limit) {
+        String query = "SELECT recorded_at, price, price_change FROM kabu_price_history ORDER BY id DESC LIMIT ? OFFSET ?";
+        List<PriceHistory.Point> points = new ArrayList<>();
+
+        long start = System.nanoTime();
+        try (Connection conn = getReadConnection();
+                PreparedStatement stmt = conn.prepareStatement(query)) {
+
+            stmt.setInt(1, limit);
+            stmt.setInt(2, offset);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                points.add(new PriceHistory.Point(rs.getTimestamp("recorded_at").getTime(), rs.getInt("price"),
+                        rs.getInt("price_change")));
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "価格履歴の取得に失敗しました", e);
+        } finally {
+            metrics.record(Query.GET_PRICE_HISTORY, start);
+        }
+        return points;
+    }
+
+    /**
+     * 直近の価格履歴（DBアクセスなし）
+     */
+    public PriceHistory getPriceHistory() {
+        return priceHistory;
+    }
+
     /**
      * データベース接続を閉じる
      */
     public void close() {
+        breaker.stop();
+        if (replica != null) {
+            replica.close();
+        }
         if (dataSource != null && !dataSource.isClosed()) {
             dataSource.close();
             plugin.getLogger().info("データベース接続を閉じました");
@@ -0,0 +1,51 @@
+package com.yiorno.kabu.database;
+
+import com.zaxxer.hikari.HikariConfig;
+
+import java.nio.file.Path;
+
+/**
+ * プラグインのフォルダ内のファイルに保存する組み込みDB（H2 の MySQL互換モード）
+ * サーバーと同じプロセスで動くので、ネットワークを通らずに読み書きできる
+ * ファイルはロックされるため、1台のサーバーからだけ使える
+ */
+public class H2Storage implements Storage {
+
+    private final Path file;
+
+    /**
+     * @param file 保存するファイル（拡張子を除く）
+     */
+    public H2Storage(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public String name() {
+        return "h2";
+    }
+
+    @Override
+    public boolean isEmbedded() {
+        return true;
+    }
+
+    @Override
+    public HikariConfig createPoolConfig() {
+        HikariConfig config = new HikariConfig();
+
+        // 拡張子（.mv.db）は H2 が付ける
+        // 終了時の自動クローズは止め、プラグインの停止処理で接続プールと一緒に閉じる
+        config.setJdbcUrl("jdbc:h2:file:" + file.toAbsolutePath() +
+                ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;LOCK_TIMEOUT=10000;DB_CLOSE_ON_EXIT=FALSE");
+        config.setDriverClassName("org.h2.Driver");
+        config.setUsername("sa");
+        config.setPassword("");
+        return config;
+    }
+
+    @Override
+    public String restartIdentity(String table, String column, long next) {
+        return "ALTER TABLE " + table + " ALTER COLUMN " + column + " RESTART WITH " + next;
+    }
+}
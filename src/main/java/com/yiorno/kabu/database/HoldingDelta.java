@@ -0,0 +1,28 @@
+package com.yiorno.kabu.database;
+
+/**
+ * まだDBへ反映していない持ち高の増減
+ * 取得金額の増減も保有数と一緒に持ち越し、キャッシュで計算した値をそのままDBへ反映する
+ *
+ * @param amount    保有数の増減
+ * @param costBasis 取得金額の増減
+ */
+public record HoldingDelta(int amount, long costBasis) {
+
+    /** 増減なし */
+    public static final HoldingDelta NONE = new HoldingDelta(0, 0);
+
+    /**
+     * 2つの増減を合わせる
+     */
+    public HoldingDelta plus(HoldingDelta other) {
+        return new HoldingDelta(amount + other.amount, costBasis + other.costBasis);
+    }
+
+    /**
+     * 何も変わらないか
+     */
+    public boolean isEmpty() {
+        return amount == 0 && costBasis == 0;
+    }
+}
@@ -0,0 +1,393 @@
+package com.yiorno.kabu.database;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * プレイヤーのカブ保有数キャッシュ
+ * 読み込みはメモリから行い、書き込みは増減値をまとめて一定間隔でDBへ反映する
+ */
+public class HoldingsCache {
+
+    private final Plugin plugin;
+    private final DatabaseManager database;
+    private final Leaderboard leaderboard;
+
+    // UUID → 現在の保有数（DBの値 + 未反映の増減）
+    private final Map<UUID, Integer> amounts = new ConcurrentHashMap<>();
+    // UUID → まだDBへ反映していない保有数と取得金額の増減
+    private final Map<UUID, HoldingDelta> pending = new ConcurrentHashMap<>();
+    // UUID → 取得金額と確定損益（DBから読み込んだ値と売買結果）
+    private final Map<UUID, Profit> profits = new ConcurrentHashMap<>();
+    // ログイン中のプレイヤー（キャッシュに常駐させる）
+    private final Set<UUID> online = ConcurrentHashMap.newKeySet();
+
+    // 売買（読み取り側）と一括書き込み（書き込み側）の排他
+    private final ReadWriteLock flushLock = new ReentrantReadWriteLock();
+    private BukkitTask flushTask;
+
+    // キャッシュのヒット率の計測
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private record Profit(long costBasis, long realizedProfit) {
+        static final Profit ZERO = new Profit(0, 0);
+    }
+
+    public HoldingsCache(Plugin plugin, DatabaseManager database, Leaderboard leaderboard) {
+        this.plugin = plugin;
+        this.database = database;
+        this.leaderboard = leaderboard;
+    }
+
+    /**
+     * 定期書き込みタスクを開始
+     */
+    public void startFlushTask() {
+        long interval = database.getSettings().cacheFlushInterval() * 20; // 秒をTickに変換
+        flushTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::flush, interval, interval);
+    }
+
+    /**
+     * 参加時に保有数を読み込み、ログアウトまで常駐させる
+     */
+    public void load(UUID uuid) {
+        online.add(uuid);
+        prefetch(uuid);
+    }
+
+    /**
+     * 参加したプレイヤーをログアウトまで常駐させ、先読み済みの保有数を返す
+     * 先読みされていない場合は null（DBには問い合わせないのでメインスレッドから呼べる）
+     */
+    public Integer claim(UUID uuid) {
+        online.add(uuid);
+        return amounts.get(uuid);
+    }
+
+    /**
+     * ログイン前に保有数を先読みする（まだ常駐させない）
+     * 参加まで進まなかった場合は、次回の書き込み時にキャッシュから外れる
+     */
+    public void prefetch(UUID uuid) {
+        if (!amounts.containsKey(uuid)) {
+            flushLock.readLock().lock();
+            try {
+                install(uuid);
+            } finally {
+                flushLock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * ログアウト時の処理（次回の書き込み後にキャッシュから外れる）
+     */
+    public void unload(UUID uuid) {
+        online.remove(uuid);
+        if (plugin.isEnabled()) {
+            Bukkit.getScheduler().runTaskAsynchronously(plugin, this::flush);
+        }
+    }
+
+    /**
+     * 保有数を取得（キャッシュにない場合はDBから読み込む）
+     * DBから読み込めなかった場合はキャッシュせず、未反映の増減だけを返す
+     */
+    public int get(UUID uuid) {
+        Integer amount = amounts.get(uuid);
+        if (amount != null) {
+            hits.increment();
+            return amount;
+        }
+        misses.increment();
+        flushLock.readLock().lock();
+        try {
+            Integer loaded = install(uuid) ? amounts.get(uuid) : null;
+            return loaded != null ? loaded : pendingAmount(uuid);
+        } finally {
+            flushLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 保有数を表示用に取得（キャッシュにない場合はレプリカから読み、キャッシュには入れない）
+     * 少し古い値のこともあるので、売買や編集の計算には使わない
+     */
+    public int peek(UUID uuid) {
+        Integer amount = amounts.get(uuid);
+        if (amount != null) {
+            hits.increment();
+            return amount;
+        }
+        misses.increment();
+        return database.getPlayerKabu(uuid) + pendingAmount(uuid);
+    }
+
+    /**
+     * 複数プレイヤーの保有数をまとめて取得
+     * キャッシュにないプレイヤーだけを1回のクエリで読み込む
+     */
+    public Map<UUID, Integer> getAll(Collection<UUID> uuids) {
+        Map<UUID, Integer> result = new HashMap<>();
+        List<UUID> missing = new ArrayList<>();
+        for (UUID uuid : uuids) {
+            Integer amount = amounts.get(uuid);
+            if (amount != null) {
+                result.put(uuid, amount);
+            } else {
+                missing.add(uuid);
+            }
+        }
+
+        hits.add(result.size());
+        misses.add(missing.size());
+
+        if (!missing.isEmpty()) {
+            Map<UUID, Integer> stored = database.getPlayerKabuBatch(missing);
+            for (UUID uuid : missing) {
+                int amount = stored.getOrDefault(uuid, 0) + pendingAmount(uuid);
+                result.put(uuid, amount);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * キャッシュから取得できた回数（累計）
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * キャッシュになくDBから読み込んだ回数（累計）
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * キャッシュにある保有数を取得（読み込まれていない場合は null）
+     */
+    public Integer getCached(UUID uuid) {
+        return amounts.get(uuid);
+    }
+
+    /**
+     * 今期の持ち高を取得（キャッシュにない場合はDBから読み込む）
+     */
+    public Position getPosition(UUID uuid) {
+        int amount = get(uuid);
+        Profit profit = profits.getOrDefault(uuid, Profit.ZERO);
+        return new Position(amount, profit.costBasis(), profit.realizedProfit());
+    }
+
+    /**
+     * 保有数を増減し、変更後の値を返す
+     * 減らす場合は取得金額も同じ割合で減らし、減らした額も保有数と一緒にDBへ持ち越す
+     * キャッシュになくDBからも読み込めない場合は IllegalStateException を投げる
+     */
+    public int add(UUID uuid, int delta) {
+        flushLock.readLock().lock();
+        try {
+            if (!amounts.containsKey(uuid) && !install(uuid)) {
+                throw new IllegalStateException("DBから保有数を読み込めませんでした: " + uuid);
+            }
+            return amounts.compute(uuid, (key, current) -> {
+                // 読み込んだ直後にログインの拒否で破棄された場合
+                if (current == null) {
+                    throw new IllegalStateException("保有数のキャッシュが破棄されました: " + key);
+                }
+                int base = current;
+                long reduced = 0;
+                Profit profit = profits.get(key);
+                if (delta < 0 && profit != null) {
+                    reduced = base > 0 ? profit.costBasis() * Math.min(-delta, base) / base : profit.costBasis();
+                    profits.put(key, new Profit(profit.costBasis() - reduced, profit.realizedProfit()));
+                }
+                pending.merge(key, new HoldingDelta(delta, -reduced), HoldingDelta::plus);
+                leaderboard.update(key, base + delta);
+                return base + delta;
+            });
+        } finally {
+            flushLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 売買をDBへ即時に反映し、結果をキャッシュに取り込む
+     * 未反映の増減がある場合は同じトランザクションで反映する
+     */
+    public TradeResult trade(UUID uuid, int delta, int price) {
+        flushLock.readLock().lock();
+        try {
+            HoldingDelta unflushed = pending.remove(uuid);
+            HoldingDelta carried = unflushed != null ? unflushed : HoldingDelta.NONE;
+
+            TradeResult result = database.executeTrade(uuid, carried, delta, price);
+            if (!result.isSuccess()) {
+                if (!carried.isEmpty()) {
+                    pending.merge(uuid, carried, HoldingDelta::plus);
+                }
+                return result;
+            }
+
+            // 反映中に行われた増減を加えてキャッシュを更新
+            profits.put(uuid, new Profit(result.costBasis(), result.realizedProfit()));
+            amounts.compute(uuid, (key, amount) -> {
+                int balance = result.balance() + pendingAmount(key);
+                leaderboard.update(key, balance);
+                return balance;
+            });
+            return result;
+        } finally {
+            flushLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@link #trade} で反映した売買を取り消し、保有数・取得金額・確定損益を売買の直前の値に戻す
+     * （Vaultの処理に失敗した場合に使う）
+     */
+    public TradeResult revert(UUID uuid, TradeResult trade) {
+        flushLock.readLock().lock();
+        try {
+            TradeResult result = database.revertTrade(uuid, trade);
+            // 取り消しの間に期間が切り替わっていた場合、キャッシュは新しい期間の値なのでそのままにする
+            if (!result.isSuccess() || result.period() != database.currentPeriod()) {
+                return result;
+            }
+
+            profits.put(uuid, new Profit(result.costBasis(), result.realizedProfit()));
+            amounts.compute(uuid, (key, amount) -> {
+                int balance = result.balance() + pendingAmount(key);
+                leaderboard.update(key, balance);
+                return balance;
+            });
+            return result;
+        } finally {
+            flushLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 未反映の増減をまとめてDBへ書き込む
+     */
+    public void flush() {
+        // DBに接続できない間は書き込みを持ち越し、キャッシュも解放しない
+        if (!database.isAvailable()) {
+            return;
+        }
+
+        flushLock.writeLock().lock();
+        try {
+            writePending();
+
+            // オフラインかつ未反映の増減がないエントリを解放
+            for (UUID uuid : amounts.keySet()) {
+                if (amounts.computeIfPresent(uuid, (key, amount) ->
+                        online.contains(key) || pending.containsKey(key) ? amount : null) == null) {
+                    profits.remove(uuid);
+                }
+            }
+        } finally {
+            flushLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 新しい期間を開始し、全プレイヤーの保有数を0にする
+     * 期間を進めるだけなので、保有数の件数に関係なく一定時間で終わる
+     *
+     * @param settlementPrice 終了する期間を精算する終値（精算しない場合は0）
+     */
+    public boolean startNewPeriod(int newPrice, int priceChange, LocalDate updateDate, int settlementPrice) {
+        flushLock.writeLock().lock();
+        try {
+            // 終了する期間の増減を書き込んでから期間を進める
+            writePending();
+            if (!database.startNewPeriod(newPrice, priceChange, updateDate, settlementPrice)) {
+                return false;
+            }
+
+            if (!pending.isEmpty()) {
+                plugin.getLogger().warning("前の期間の保有数の一部をDBへ書き込めませんでした: " + pending.size() + "件");
+                pending.clear();
+            }
+            amounts.replaceAll((uuid, amount) -> 0);
+            profits.clear();
+            leaderboard.clear();
+            return true;
+        } finally {
+            flushLock.writeLock().unlock();
+        }
+    }
+
+    private void writePending() {
+        Map<UUID, HoldingDelta> batch = new HashMap<>();
+        for (UUID uuid : pending.keySet()) {
+            HoldingDelta delta = pending.remove(uuid);
+            if (delta != null && !delta.isEmpty()) {
+                batch.put(uuid, delta);
+            }
+        }
+
+        if (!batch.isEmpty() && !database.addPlayerKabuBatch(batch)) {
+            // 書き込みに失敗した場合は次回に持ち越す
+            batch.forEach((uuid, delta) -> pending.merge(uuid, delta, HoldingDelta::plus));
+        }
+    }
+
+    /**
+     * まだDBへ反映していない保有数の増減
+     */
+    private int pendingAmount(UUID uuid) {
+        HoldingDelta delta = pending.get(uuid);
+        return delta != null ? delta.amount() : 0;
+    }
+
+    /**
+     * 定期書き込みを停止し、残りをすべて書き込む
+     */
+    public void shutdown() {
+        if (flushTask != null) {
+            flushTask.cancel();
+        }
+        flush();
+        if (!pending.isEmpty()) {
+            plugin.getLogger().warning("カブ保有数の一部をDBへ書き込めませんでした: " + pending.size() + "件");
+        }
+    }
+
+    /**
+     * DBから持ち高を読み込んでキャッシュに入れる（読み込めなかった場合は false を返し、キャッシュしない）
+     * DBへの問い合わせはマップのロックの外で行い、同時に読み込んだ場合は先に入れた方を残す
+     * 読み込みから登録までの間に一括書き込みや期間の切り替えが入らないよう、読み取りロックを持って呼ぶこと
+     */
+    private boolean install(UUID uuid) {
+        Position position = database.getPosition(uuid);
+        if (position == null) {
+            return false;
+        }
+        // 保有数が見えた時点で取得金額も揃っているように、先に取得金額を入れる
+        HoldingDelta unflushed = pending.getOrDefault(uuid, HoldingDelta.NONE);
+        profits.putIfAbsent(uuid, new Profit(position.costBasis() + unflushed.costBasis(), position.realizedProfit()));
+        amounts.putIfAbsent(uuid, position.amount() + unflushed.amount());
+        return true;
+    }
+}
@@ -0,0 +1,217 @@
+package com.yiorno.kabu.database;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+/**
+ * カブ保有数ランキング
+ * 保有数の多い順に並んだ順序統計木（Treap）で、更新・順位・ページ取得を O(log n) で行う
+ */
+public class Leaderboard {
+
+    /**
+     * ランキングの1行
+     */
+    public record Entry(UUID uuid, int amount) {
+    }
+
+    private static final class Node {
+        final UUID uuid;
+        final int amount;
+        final int priority;
+        int size = 1;
+        Node left;
+        Node right;
+
+        Node(UUID uuid, int amount, int priority) {
+            this.uuid = uuid;
+            this.amount = amount;
+            this.priority = priority;
+        }
+    }
+
+    private final Map<UUID, Integer> amounts = new HashMap<>();
+    private final SplittableRandom random = new SplittableRandom();
+    private Node root;
+
+    /**
+     * DBから読み込んだ保有数で作り直す
+     */
+    public synchronized void load(Map<UUID, Integer> holdings) {
+        clear();
+        holdings.forEach(this::update);
+    }
+
+    /**
+     * プレイヤーの保有数を反映（0以下ならランキングから外す）
+     */
+    public synchronized void update(UUID uuid, int amount) {
+        Integer previous = amounts.remove(uuid);
+        if (previous != null) {
+            root = erase(root, previous, uuid);
+        }
+        if (amount > 0) {
+            amounts.put(uuid, amount);
+            root = insert(root, new Node(uuid, amount, random.nextInt()));
+        }
+    }
+
+    /**
+     * 全員をランキングから外す
+     */
+    public synchronized void clear() {
+        amounts.clear();
+        root = null;
+    }
+
+    /**
+     * ランキングに載っている人数
+     */
+    public synchronized int size() {
+        return size(root);
+    }
+
+    /**
+     * 指定した順位（0始まり）から最大 limit 件を取得
+     */
+    public synchronized List<Entry> page(int offset, int limit) {
+        List<Entry> entries = new ArrayList<>(Math.max(0, Math.min(limit, size(root) - offset)));
+        for (int i = offset; i < offset + limit && i < size(root); i++) {
+            Node node = select(i);
+            entries.add(new Entry(node.uuid, node.amount));
+        }
+        return entries;
+    }
+
+    /**
+     * プレイヤーの順位（1始まり、ランキング外なら 0）
+     */
+    public synchronized int rank(UUID uuid) {
+        Integer amount = amounts.get(uuid);
+        if (amount == null) {
+            return 0;
+        }
+
+        int rank = 1;
+        Node node = root;
+        while (node != null) {
+            int c = compare(amount, uuid, node);
+            if (c < 0) {
+                node = node.left;
+            } else {
+                rank += size(node.left);
+                if (c == 0) {
+                    return rank;
+                }
+                rank++;
+                node = node.right;
+            }
+        }
+        return 0;
+    }
+
+    private Node select(int index) {
+        Node node = root;
+        while (node != null) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+        throw new IndexOutOfBoundsException();
+    }
+
+    private Node insert(Node node, Node inserted) {
+        if (node == null) {
+            return inserted;
+        }
+        if (inserted.priority > node.priority) {
+            Node[] parts = split(node, inserted.amount, inserted.uuid);
+            inserted.left = parts[0];
+            inserted.right = parts[1];
+            return updateSize(inserted);
+        }
+        if (compare(inserted.amount, inserted.uuid, node) < 0) {
+            node.left = insert(node.left, inserted);
+        } else {
+            node.right = insert(node.right, inserted);
+        }
+        return updateSize(node);
+    }
+
+    private Node erase(Node node, int amount, UUID uuid) {
+        if (node == null) {
+            return null;
+        }
+        int c = compare(amount, uuid, node);
+        if (c == 0) {
+            return merge(node.left, node.right);
+        }
+        if (c < 0) {
+            node.left = erase(node.left, amount, uuid);
+        } else {
+            node.right = erase(node.right, amount, uuid);
+        }
+        return updateSize(node);
+    }
+
+    /**
+     * 指定したキーより前の部分と、それ以降の部分に分割
+     */
+    private Node[] split(Node node, int amount, UUID uuid) {
+        if (node == null) {
+            return new Node[] { null, null };
+        }
+        if (compare(amount, uuid, node) <= 0) {
+            Node[] parts = split(node.left, amount, uuid);
+            node.left = parts[1];
+            parts[1] = updateSize(node);
+            return parts;
+        }
+        Node[] parts = split(node.right, amount, uuid);
+        node.right = parts[0];
+        parts[0] = updateSize(node);
+        return parts;
+    }
+
+    private Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            return updateSize(left);
+        }
+        right.left = merge(left, right.left);
+        return updateSize(right);
+    }
+
+    /**
+     * 保有数の多い順、同数ならUUID順
+     */
+    private static int compare(int amount, UUID uuid, Node node) {
+        int c = Integer.compare(node.amount, amount);
+        return c != 0 ? c : uuid.compareTo(node.uuid);
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static Node updateSize(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        return node;
+    }
+}
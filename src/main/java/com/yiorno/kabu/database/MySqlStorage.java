@@ -0,0 +1,79 @@
+package com.yiorno.kabu.database;
+
+import com.yiorno.kabu.Settings;
+import com.zaxxer.hikari.HikariConfig;
+
+/**
+ * MySQL サーバーに保存する
+ */
+public class MySqlStorage implements Storage {
+
+    private final Settings.MySql primary;
+    private final Settings.Replica replica;
+
+    public MySqlStorage(Settings.MySql primary, Settings.Replica replica) {
+        this.primary = primary;
+        this.replica = replica;
+    }
+
+    @Override
+    public String name() {
+        return "mysql";
+    }
+
+    @Override
+    public boolean isEmbedded() {
+        return false;
+    }
+
+    @Override
+    public HikariConfig createPoolConfig() {
+        return createPoolConfig(primary);
+    }
+
+    /**
+     * mysql.replica.enabled が true のときだけレプリカを使う
+     */
+    @Override
+    public HikariConfig createReplicaPoolConfig() {
+        if (!replica.enabled()) {
+            return null;
+        }
+        return createPoolConfig(replica.connection());
+    }
+
+    private static HikariConfig createPoolConfig(Settings.MySql mysql) {
+        HikariConfig config = new HikariConfig();
+
+        config.setJdbcUrl("jdbc:mysql://" + mysql.host() + ":" + mysql.port() + "/" + mysql.database() +
+                "?useSSL=false&serverTimezone=UTC");
+        config.setUsername(mysql.username());
+        config.setPassword(mysql.password());
+
+        config.addDataSourceProperty("cachePrepStmts", "true");
+        config.addDataSourceProperty("prepStmtCacheSize", "250");
+        config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        config.addDataSourceProperty("useServerPrepStmts", "true");
+        config.addDataSourceProperty("rewriteBatchedStatements", "true");
+        return config;
+    }
+
+    /**
+     * Connector/J は useCursorFetch を付けない限り fetch size を無視して全件を読み込むので、
+     * 1行ずつ受け取る指定（Integer.MIN_VALUE）を使う（読み終わるまでその接続では他のSQLを実行できない）
+     */
+    @Override
+    public int streamingFetchSize(int rows) {
+        return Integer.MIN_VALUE;
+    }
+
+    @Override
+    public boolean supportsTableSwap() {
+        return true;
+    }
+
+    @Override
+    public String restartIdentity(String table, String column, long next) {
+        return "ALTER TABLE " + table + " AUTO_INCREMENT = " + next;
+    }
+}
@@ -0,0 +1,74 @@
+package com.yiorno.kabu.database;
+
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * プレイヤー名とUUIDの対応表
+ * kabu_names の内容をメモリに保持し、名前の解決でMojangへの問い合わせが発生しないようにする
+ */
+public class NameCache {
+
+    private final DatabaseManager database;
+
+    // 小文字の名前 → UUID
+    private final Map<String, UUID> uuids = new ConcurrentHashMap<>();
+    // UUID → 名前
+    private final Map<UUID, String> names = new ConcurrentHashMap<>();
+
+    public NameCache(DatabaseManager database) {
+        this.database = database;
+    }
+
+    /**
+     * DBから全件を読み込む
+     */
+    public void load() {
+        database.getAllNames().forEach(this::put);
+    }
+
+    /**
+     * ログイン時に名前を記録（変わっていなければDBへは書き込まない）
+     */
+    public void update(UUID uuid, String name) {
+        if (name.equals(names.get(uuid))) {
+            return;
+        }
+        put(uuid, name);
+        database.saveName(uuid, name);
+    }
+
+    /**
+     * 名前からUUIDを取得（見つからない場合は null）
+     */
+    public UUID getUuid(String name) {
+        UUID uuid = uuids.get(name.toLowerCase(Locale.ROOT));
+        if (uuid != null) {
+            return uuid;
+        }
+
+        // サーバーのユーザーキャッシュにある場合のみ使う（Web問い合わせはしない）
+        OfflinePlayer cached = Bukkit.getOfflinePlayerIfCached(name);
+        return cached != null ? cached.getUniqueId() : null;
+    }
+
+    /**
+     * UUIDから名前を取得（見つからない場合は null）
+     */
+    public String getName(UUID uuid) {
+        return names.get(uuid);
+    }
+
+    private void put(UUID uuid, String name) {
+        String previous = names.put(uuid, name);
+        if (previous != null) {
+            uuids.remove(previous.toLowerCase(Locale.ROOT), uuid);
+        }
+        uuids.put(name.toLowerCase(Locale.ROOT), uuid);
+    }
+}
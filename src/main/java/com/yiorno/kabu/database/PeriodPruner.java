@@ -0,0 +1,77 @@
+package com.yiorno.kabu.database;
+
+import com.yiorno.kabu.Settings;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 終了した期間の保有数を少しずつ削除するバックグラウンド処理
+ * 1回のDELETEを小さくし、間に待ち時間を入れることでロックやバイナリログの負荷を分散する
+ */
+public class PeriodPruner {
+
+    private final Plugin plugin;
+    private final DatabaseManager database;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean stopped;
+    private BukkitTask task;
+
+    public PeriodPruner(Plugin plugin, DatabaseManager database) {
+        this.plugin = plugin;
+        this.database = database;
+    }
+
+    /**
+     * 定期実行を開始
+     */
+    public void start() {
+        long interval = database.getSettings().prune().interval() * 60 * 20; // 分をTickに変換
+        task = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::prune, 1200L, interval);
+    }
+
+    /**
+     * 終了した期間の保有数を削除
+     */
+    public void prune() {
+        if (!database.isAvailable() || !running.compareAndSet(false, true)) {
+            return;
+        }
+
+        Settings.Prune settings = database.getSettings().prune();
+        int chunkSize = settings.chunkSize();
+        long pause = settings.pauseMillis();
+        long total = 0;
+
+        try {
+            while (!stopped) {
+                int deleted = database.pruneOldPeriods(chunkSize);
+                total += deleted;
+                if (deleted < chunkSize) {
+                    break;
+                }
+                Thread.sleep(pause);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running.set(false);
+        }
+
+        if (total > 0) {
+            plugin.getLogger().info("終了した期間の保有数を削除しました: " + total + "件");
+        }
+    }
+
+    /**
+     * 定期実行を停止
+     */
+    public void stop() {
+        stopped = true;
+        if (task != null) {
+            task.cancel();
+        }
+    }
+}
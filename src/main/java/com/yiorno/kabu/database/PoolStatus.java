@@ -0,0 +1,13 @@
+package com.yiorno.kabu.database;
+
+/**
+ * 接続プールの状態
+ *
+ * @param active  使用中の接続数
+ * @param idle    待機中の接続数
+ * @param total   接続数の合計
+ * @param waiting 接続の空きを待っているスレッド数
+ * @param maximum 最大接続数
+ */
+public record PoolStatus(int active, int idle, int total, int waiting, int maximum) {
+}
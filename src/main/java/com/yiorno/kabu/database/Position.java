@@ -0,0 +1,28 @@
+package com.yiorno.kabu.database;
+
+/**
+ * プレイヤーの今期の持ち高
+ *
+ * @param amount         保有数
+ * @param costBasis      保有しているカブの取得金額の合計
+ * @param realizedProfit 売却で確定した損益
+ */
+public record Position(int amount, long costBasis, long realizedProfit) {
+
+    /** 何も持っていない状態 */
+    public static final Position EMPTY = new Position(0, 0, 0);
+
+    /**
+     * 平均取得単価（保有していなければ0）
+     */
+    public double averageCost() {
+        return amount > 0 ? (double) costBasis / amount : 0;
+    }
+
+    /**
+     * 指定した価格で評価した含み損益
+     */
+    public long unrealizedProfit(int price) {
+        return (long) amount * price - costBasis;
+    }
+}
@@ -0,0 +1,96 @@
+package com.yiorno.kabu.database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 直近の価格履歴
+ * 固定長のプリミティブ配列によるリングバッファで、古いものから上書きされる
+ */
+public class PriceHistory {
+
+    /**
+     * 履歴の1件
+     *
+     * @param time   記録時刻（エポックミリ秒）
+     * @param price  カブ価
+     * @param change 前日の終値との差
+     */
+    public record Point(long time, int price, int change) {
+    }
+
+    private final long[] times;
+    private final int[] prices;
+    private final int[] changes;
+    private int head;
+    private int size;
+
+    public PriceHistory(int capacity) {
+        int length = Math.max(1, capacity);
+        this.times = new long[length];
+        this.prices = new int[length];
+        this.changes = new int[length];
+    }
+
+    /**
+     * 保持できる最大件数
+     */
+    public int capacity() {
+        return prices.length;
+    }
+
+    /**
+     * 保持している件数
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * 1件追加（いっぱいなら最も古いものを上書き）
+     */
+    public synchronized void record(long time, int price, int change) {
+        times[head] = time;
+        prices[head] = price;
+        changes[head] = change;
+        head = (head + 1) % prices.length;
+        if (size < prices.length) {
+            size++;
+        }
+    }
+
+    /**
+     * DBから読み込んだ履歴（古い順）で作り直す
+     */
+    public synchronized void load(List<Point> points) {
+        head = 0;
+        size = 0;
+        for (Point point : points) {
+            record(point.time(), point.price(), point.change());
+        }
+    }
+
+    /**
+     * 価格だけを古い順に取得
+     */
+    public synchronized int[] prices() {
+        int[] result = new int[size];
+        int start = (head - size + prices.length) % prices.length;
+        for (int i = 0; i < size; i++) {
+            result[i] = prices[(start + i) % prices.length];
+        }
+        return result;
+    }
+
+    /**
+     * 新しいほうから offset 件飛ばして最大 limit 件を新しい順に取得
+     */
+    public synchronized List<Point> latest(int offset, int limit) {
+        List<Point> points = new ArrayList<>(Math.max(0, Math.min(limit, size - offset)));
+        for (int i = offset; i < offset + limit && i < size; i++) {
+            int index = (head - 1 - i + prices.length * 2) % prices.length;
+            points.add(new Point(times[index], prices[index], changes[index]));
+        }
+        return points;
+    }
+}
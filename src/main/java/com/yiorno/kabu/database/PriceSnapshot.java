@@ -0,0 +1,60 @@
+package com.yiorno.kabu.database;
+
+import java.time.LocalDate;
+
+/**
+ * カブ価格の状態（kabu_prices の1行分）
+ *
+ * @param price          現在のカブ価
+ * @param change         前日の終値からの増減
+ * @param openPrice      今日の始値（日付の切り替えで決めた価格、日中の変動はこの値に引き戻される）
+ * @param lastUpdateDay  最終更新日（日のみ）
+ * @param lastUpdateDate 最終更新日（旧バージョンのデータでは null）
+ * @param period         現在の期間（1日/16日のリセットごとに増える）
+ * @param version        差し替えのたびに増える番号
+ */
+public record PriceSnapshot(int price, int change, int openPrice, int lastUpdateDay, LocalDate lastUpdateDate, int period,
+        long version) {
+
+    /** DBから読み込むまでの初期値 */
+    public static final PriceSnapshot DEFAULT = new PriceSnapshot(100, 0, 100, 1, null, 1, 0);
+
+    /**
+     * 価格と増減を差し替えた次のスナップショットを作成（始値はそのまま）
+     */
+    public PriceSnapshot next(int price, int change) {
+        return new PriceSnapshot(price, change, openPrice, lastUpdateDay, lastUpdateDate, period, version + 1);
+    }
+
+    /**
+     * 日付の切り替わりで更新した次のスナップショットを作成（新しい価格がその日の始値になる）
+     */
+    public PriceSnapshot next(int price, int change, LocalDate updateDate) {
+        return new PriceSnapshot(price, change, price, updateDate.getDayOfMonth(), updateDate, period, version + 1);
+    }
+
+    /**
+     * 新しい期間を開始した次のスナップショットを作成（新しい価格がその日の始値になる）
+     */
+    public PriceSnapshot nextPeriod(int price, int change, LocalDate updateDate) {
+        return new PriceSnapshot(price, change, price, updateDate.getDayOfMonth(), updateDate, period + 1, version + 1);
+    }
+
+    /**
+     * 最終更新日を取得
+     * 日付が記録されていない場合は、today 以前で日が一致する直近の日付とみなす
+     */
+    public LocalDate lastUpdateDate(LocalDate today) {
+        if (lastUpdateDate != null) {
+            return lastUpdateDate;
+        }
+        LocalDate date = today;
+        for (int i = 0; i < 62; i++) {
+            if (date.getDayOfMonth() == lastUpdateDay) {
+                return date;
+            }
+            date = date.minusDays(1);
+        }
+        return today;
+    }
+}
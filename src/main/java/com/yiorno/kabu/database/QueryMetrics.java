@@ -0,0 +1,114 @@
+package com.yiorno.kabu.database;
+
+import com.yiorno.kabu.util.LatencyHistogram;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * DB処理の計測値
+ * クエリごとの処理時間・接続の取得待ち時間・メインスレッドで行ったDB処理の時間を記録する
+ */
+public class QueryMetrics {
+
+    /**
+     * 計測するDB処理
+     */
+    public enum Query {
+        GET_PLAYER_KABU, GET_POSITION, SET_PLAYER_KABU, ADD_PLAYER_KABU, EXECUTE_TRADE, REVERT_TRADE, ADD_PLAYER_KABU_BATCH,
+        INSERT_TRADES, START_NEW_PERIOD, GET_PENDING_SETTLEMENT, CLAIM_SETTLEMENT_PAGE, SAVE_SETTLEMENT_PROGRESS, RELEASE_SETTLEMENT,
+        GET_UNCONFIRMED_SETTLEMENTS, RESOLVE_UNCONFIRMED_SETTLEMENTS, COMPLETE_SETTLEMENT, PRUNE_OLD_PERIODS, GET_TOP_PLAYERS,
+        GET_TOP_EARNERS, RELOAD_PRICE_SNAPSHOT, GET_PLAYER_KABU_BATCH, GET_ALL_HOLDINGS, GET_ALL_NAMES, SAVE_NAME, UPDATE_PRICE,
+        GET_PRICE_HISTORY
+    }
+
+    private final LatencyHistogram[] queries = new LatencyHistogram[Query.values().length];
+    private final LatencyHistogram connectionAcquire = new LatencyHistogram();
+    private final LatencyHistogram mainThreadPerTick = new LatencyHistogram();
+    private final LongAdder connectionTimeouts = new LongAdder();
+    private final LongAdder mainThreadNanos = new LongAdder();
+    private final LongAdder ticks = new LongAdder();
+    private volatile Thread mainThread;
+
+    public QueryMetrics() {
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * DB処理の時間を記録（start は System.nanoTime() で取得した開始時刻）
+     */
+    public void record(Query query, long start) {
+        long elapsed = System.nanoTime() - start;
+        queries[query.ordinal()].record(elapsed);
+        if (Thread.currentThread() == mainThread) {
+            mainThreadNanos.add(elapsed);
+        }
+    }
+
+    /**
+     * メインスレッドを登録（メインスレッドから呼ぶ）
+     */
+    public void bindMainThread() {
+        mainThread = Thread.currentThread();
+    }
+
+    /**
+     * 1Tickの間にメインスレッドで行ったDB処理の時間を締める（メインスレッドから毎Tick呼ぶ）
+     */
+    public void endTick() {
+        ticks.increment();
+        long nanos = mainThreadNanos.sumThenReset();
+        if (nanos > 0) {
+            mainThreadPerTick.record(nanos);
+        }
+    }
+
+    public LatencyHistogram query(Query query) {
+        return queries[query.ordinal()];
+    }
+
+    /**
+     * 接続プールから接続を取得するまでの待ち時間
+     */
+    public LatencyHistogram connectionAcquire() {
+        return connectionAcquire;
+    }
+
+    /**
+     * メインスレッドでDB処理を行ったTickごとの、そのTickでのDB処理の合計時間
+     */
+    public LatencyHistogram mainThreadPerTick() {
+        return mainThreadPerTick;
+    }
+
+    public long getConnectionTimeouts() {
+        return connectionTimeouts.sum();
+    }
+
+    /**
+     * 計測したTickの数
+     */
+    public long getTicks() {
+        return ticks.sum();
+    }
+
+    /**
+     * HikariCP に渡す、接続の取得待ち時間の記録先
+     */
+    MetricsTrackerFactory trackerFactory() {
+        return (poolName, poolStats) -> new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                connectionAcquire.record(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                connectionTimeouts.increment();
+            }
+        };
+    }
+}
@@ -0,0 +1,234 @@
+package com.yiorno.kabu.database;
+
+import com.yiorno.kabu.Settings;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * 読み込み専用のレプリカ
+ * 遅延を定期的に確認し、上限以内のときだけ読み込みに使う（使えないときはプライマリから読む）
+ * 遅延は SHOW REPLICA STATUS か、プライマリに書いた心拍がレプリカに届くまでの時間で測る（mysql.replica.lag-probe）
+ */
+public class ReadReplica {
+
+    private static final String HEARTBEAT = "heartbeat";
+
+    private final Plugin plugin;
+    private final Supplier<Settings> settings;
+    private final DatabaseManager primary;
+    private final HikariDataSource dataSource;
+    private final AtomicBoolean checking = new AtomicBoolean();
+
+    private volatile boolean usable;
+    // 直近に確認した遅延（秒、確認できなかった場合は -1）
+    private volatile long lagSeconds = -1;
+    // 使えない理由（同じ理由で何度もログに出さないため、確認のスレッドだけが触る）
+    private volatile String unusableReason;
+    // プライマリに最後に書いた心拍（ミリ秒）
+    private long lastBeat;
+    private BukkitTask checkTask;
+
+    /**
+     * レプリカへの接続プールを作成（レプリカが止まっていても起動は続け、確認が通るまで使わない）
+     *
+     * @param primary 心拍を書き込むプライマリ
+     */
+    public ReadReplica(Plugin plugin, Supplier<Settings> settings, HikariConfig config, DatabaseManager primary) {
+        this.plugin = plugin;
+        this.settings = settings;
+        this.primary = primary;
+        config.setPoolName("kabu-replica");
+        config.setReadOnly(true);
+        config.setInitializationFailTimeout(-1);
+        this.dataSource = new HikariDataSource(config);
+    }
+
+    /**
+     * 遅延の定期確認を開始
+     */
+    public void start() {
+        long interval = settings.get().replica().checkInterval() * 20; // 秒をTickに変換
+        if (plugin.isEnabled()) {
+            checkTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::check, 0L, interval);
+        }
+    }
+
+    /**
+     * 読み込みに使える接続（使えない状態か、接続を取得できなかった場合は null）
+     */
+    public Connection getConnection() {
+        if (!usable) {
+            return null;
+        }
+        try {
+            return dataSource.getConnection();
+        } catch (SQLException e) {
+            markUnusable("レプリカに接続できません", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 読み込みに使っているか
+     */
+    public boolean isUsable() {
+        return usable;
+    }
+
+    /**
+     * 直近に確認した遅延（秒、確認できなかった場合は -1）
+     */
+    public long getLagSeconds() {
+        return lagSeconds;
+    }
+
+    /**
+     * 実行中の接続プール（設定の反映用）
+     */
+    HikariDataSource dataSource() {
+        return dataSource;
+    }
+
+    /**
+     * 遅延を確認し、上限以内なら読み込みに使う
+     */
+    void check() {
+        if (!checking.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Settings.Replica config = settings.get().replica();
+            if (config.trusted()) {
+                // 遅延は確認せず、接続できれば使う
+                lagSeconds = -1;
+                if (isReachable()) {
+                    markUsable("遅延は確認しません");
+                } else {
+                    markUnusable("レプリカに接続できません", null);
+                }
+                return;
+            }
+
+            boolean heartbeat = HEARTBEAT.equals(config.lagProbe());
+            Long lag = heartbeat ? readHeartbeatLag() : readLag();
+            lagSeconds = lag != null ? lag : -1;
+            if (lag == null) {
+                markUnusable(heartbeat
+                        ? "レプリカの心拍を読み込めません（kabu_heartbeat が複製されていません）"
+                        : "レプリカの複製の状態を取得できません（SHOW REPLICA STATUS が空か、複製が止まっています）",
+                        "複製していないDBを使う場合は mysql.replica.max-lag を -1 にしてください");
+            } else if (lag > config.maxLagSeconds()) {
+                markUnusable("レプリカの遅延が上限を超えています", lag + "秒");
+            } else {
+                markUsable("遅延 " + lag + "秒");
+            }
+        } catch (SQLException e) {
+            lagSeconds = -1;
+            markUnusable("レプリカの遅延を確認できません", e.getMessage());
+        } finally {
+            checking.set(false);
+        }
+    }
+
+    private boolean isReachable() {
+        try (Connection conn = dataSource.getConnection()) {
+            return conn.isValid(5);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * プライマリからの遅延（秒）を取得（複製が止まっている場合やレプリカでない場合は null）
+     */
+    private Long readLag() throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            try {
+                return readLag(conn, "SHOW REPLICA STATUS", "Seconds_Behind_Source");
+            } catch (SQLException e) {
+                // MySQL 8.0.22 より前の書き方
+                return readLag(conn, "SHOW SLAVE STATUS", "Seconds_Behind_Master");
+            }
+        }
+    }
+
+    private static Long readLag(Connection conn, String query, String column) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(query)) {
+            ResultSet rs = stmt.executeQuery();
+            if (!rs.next()) {
+                return null;
+            }
+            long lag = rs.getLong(column);
+            return rs.wasNull() ? null : lag;
+        }
+    }
+
+    /**
+     * 心拍で測った遅延（秒）を取得し、次の確認用に新しい心拍をプライマリへ書く（一度も届いていない場合は null）
+     * 前回書いた心拍が届いていれば遅延は確認間隔より短いので 0 とし、届いていなければ届いた心拍からの経過時間を遅延とする
+     */
+    private Long readHeartbeatLag() throws SQLException {
+        long beat;
+        try (Connection conn = dataSource.getConnection();
+                PreparedStatement stmt = conn.prepareStatement("SELECT beat_millis FROM kabu_heartbeat WHERE id = 1")) {
+            ResultSet rs = stmt.executeQuery();
+            beat = rs.next() ? rs.getLong(1) : 0;
+        }
+
+        long now = System.currentTimeMillis();
+        try (Connection conn = primary.getConnection();
+                PreparedStatement stmt = conn.prepareStatement("UPDATE kabu_heartbeat SET beat_millis = ? WHERE id = 1")) {
+            stmt.setLong(1, now);
+            stmt.executeUpdate();
+        }
+
+        long previous = lastBeat;
+        lastBeat = now;
+        if (beat <= 0 || previous == 0) {
+            // 起動直後は比べる心拍がないので、次の確認まで待つ
+            return beat <= 0 ? null : Math.max(0, (now - beat) / 1000);
+        }
+        return beat >= previous ? 0 : Math.max(0, (now - beat) / 1000);
+    }
+
+    private void markUsable(String detail) {
+        unusableReason = null;
+        if (!usable) {
+            usable = true;
+            plugin.getLogger().info("レプリカからの読み込みを開始しました (" + detail + ")");
+        }
+    }
+
+    /**
+     * 使わない状態にする（使っていた場合か、使えない理由が変わった場合だけログに出す）
+     */
+    private void markUnusable(String reason, String detail) {
+        boolean changed = usable || !reason.equals(unusableReason);
+        usable = false;
+        unusableReason = reason;
+        if (changed) {
+            plugin.getLogger().warning(reason + (detail != null ? ": " + detail : "") + "（プライマリから読み込みます）");
+        }
+    }
+
+    /**
+     * 確認を止めて接続プールを閉じる
+     */
+    public void close() {
+        usable = false;
+        if (checkTask != null) {
+            checkTask.cancel();
+        }
+        dataSource.close();
+    }
+}
@@ -0,0 +1,79 @@
+package com.yiorno.kabu.database;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 現在のスキーマの列・インデックス・主キーを調べる
+ * JDBC のメタデータから読むので、MySQL と組み込みDBのどちらでも同じように使える
+ * 移行を途中で中断しても、やり直したときに済んでいる変更を飛ばせるようにするためのもの
+ */
+final class SchemaInfo {
+
+    private SchemaInfo() {
+    }
+
+    /**
+     * 列の型名（列がなければ null）
+     */
+    static String columnType(Connection conn, String table, String column) throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        try (ResultSet rs = meta.getColumns(conn.getCatalog(), null, escape(meta, table), null)) {
+            while (rs.next()) {
+                if (rs.getString("TABLE_NAME").equalsIgnoreCase(table) && rs.getString("COLUMN_NAME").equalsIgnoreCase(column)) {
+                    return rs.getString("TYPE_NAME");
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 列があるか
+     */
+    static boolean columnExists(Connection conn, String table, String column) throws SQLException {
+        return columnType(conn, table, column) != null;
+    }
+
+    /**
+     * インデックスがあるか
+     */
+    static boolean indexExists(Connection conn, String table, String index) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getIndexInfo(conn.getCatalog(), null, table, false, false)) {
+            while (rs.next()) {
+                if (index.equalsIgnoreCase(rs.getString("INDEX_NAME"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 主キーの列名（キーの順、主キーがなければ空）
+     */
+    static List<String> primaryKey(Connection conn, String table) throws SQLException {
+        Map<Short, String> columns = new TreeMap<>();
+        try (ResultSet rs = conn.getMetaData().getPrimaryKeys(conn.getCatalog(), null, table)) {
+            while (rs.next()) {
+                columns.put(rs.getShort("KEY_SEQ"), rs.getString("COLUMN_NAME").toLowerCase(Locale.ROOT));
+            }
+        }
+        return new ArrayList<>(columns.values());
+    }
+
+    /**
+     * テーブル名に含まれる _ や % が検索パターンとして扱われないようにする
+     */
+    private static String escape(DatabaseMetaData meta, String name) throws SQLException {
+        String escape = meta.getSearchStringEscape();
+        return name.replace(escape, escape + escape).replace("_", escape + "_").replace("%", escape + "%");
+    }
+}
@@ -0,0 +1,256 @@
+package com.yiorno.kabu.database;
+
+import org.bukkit.plugin.Plugin;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * バージョン管理されたスキーマ移行
+ * kabu_schema_version に適用済みのバージョンを記録し、未適用の移行だけを順番に実行する
+ * MySQL の DDL は文ごとに自動でコミットされるため、各移行は途中まで済んだ状態から何度実行し直しても同じ結果になるように書く
+ * （列やインデックスは {@link SchemaInfo} で有無を確かめてから追加・削除する）
+ * 組み込みDBも同じ移行を順に実行するので、SQLは MySQL と H2 の MySQL互換モードの両方で動く書き方にする
+ * 新しい列を読み書きする変更には、その列を追加する移行も同じ変更に含める（移行前のDBで起動しても読み込みに失敗しない）
+ */
+public class SchemaMigrator {
+
+    /**
+     * 移行処理の本体
+     */
+    @FunctionalInterface
+    private interface Step {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    private record Migration(int version, String description, Step step) {
+    }
+
+    private final Plugin plugin;
+    private final DatabaseManager database;
+    private final List<Migration> migrations;
+
+    public SchemaMigrator(Plugin plugin, DatabaseManager database) {
+        this.plugin = plugin;
+        this.database = database;
+        this.migrations = List.of(
+                new Migration(1, "基本テーブルの作成", this::createBaseTables),
+                new Migration(2, "プレイヤー名テーブルの作成", this::createNamesTable),
+                new Migration(3, "UUID列を BINARY(16) に移行", this::migrateUuidColumns),
+                new Migration(4, "ランキング用インデックスの作成", this::createAmountIndex),
+                new Migration(5, "保有数を期間ごとに管理", this::addPeriods),
+                new Migration(6, "最終更新日を日付で記録", conn -> addColumnIfMissing(conn,
+                        "kabu_prices", "last_update_date", "DATE NULL")),
+                new Migration(7, "価格履歴テーブルの作成", this::createPriceHistoryTable),
+                new Migration(8, "売買台帳テーブルの作成", this::createTradesTable),
+                new Migration(9, "取得金額と確定損益の追加", this::addProfitColumns),
+                new Migration(10, "期間終了時の精算テーブルの作成", conn -> execute(conn,
+                        "CREATE TABLE IF NOT EXISTS kabu_settlements (" +
+                                "period_id INT PRIMARY KEY," +
+                                "price INT NOT NULL," +
+                                "last_uuid BINARY(16) NULL," +
+                                "settled_count INT NOT NULL DEFAULT 0," +
+                                "settled_total BIGINT NOT NULL DEFAULT 0," +
+                                "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                                "completed_at TIMESTAMP NULL" +
+                                ")")),
+                new Migration(11, "精算の入金状態の追加", conn -> addColumnIfMissing(conn,
+                        "kabu_players", "settlement_state", "TINYINT NOT NULL DEFAULT 0")),
+                new Migration(12, "始値の記録", this::addOpenPrice),
+                new Migration(13, "レプリカの遅延確認用テーブルの作成", this::createHeartbeatTable));
+    }
+
+    /**
+     * 最新のスキーマのバージョン
+     */
+    int latestVersion() {
+        return migrations.get(migrations.size() - 1).version();
+    }
+
+    /**
+     * 未適用の移行を実行
+     */
+    public void migrate() throws SQLException {
+        try (Connection conn = database.getConnection()) {
+            execute(conn, "CREATE TABLE IF NOT EXISTS kabu_schema_version (" +
+                    "version INT PRIMARY KEY," +
+                    "description VARCHAR(255) NOT NULL," +
+                    "applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP" +
+                    ")");
+
+            int current = getCurrentVersion(conn);
+            for (Migration migration : migrations) {
+                if (migration.version() <= current) {
+                    continue;
+                }
+
+                long start = System.currentTimeMillis();
+                migration.step().apply(conn);
+                recordVersion(conn, migration);
+                plugin.getLogger().info("スキーマを移行しました: v" + migration.version() + " " + migration.description() +
+                        " (" + (System.currentTimeMillis() - start) + "ms)");
+            }
+        }
+    }
+
+    private void recordVersion(Connection conn, Migration migration) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO kabu_schema_version (version, description) VALUES (?, ?)")) {
+            stmt.setInt(1, migration.version());
+            stmt.setString(2, migration.description());
+            stmt.executeUpdate();
+        }
+    }
+
+    private int getCurrentVersion(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT COALESCE(MAX(version), 0) FROM kabu_schema_version")) {
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private void createBaseTables(Connection conn) throws SQLException {
+        execute(conn, "CREATE TABLE IF NOT EXISTS kabu_players (" +
+                "uuid BINARY(16) PRIMARY KEY," +
+                "kabu_amount INT NOT NULL DEFAULT 0" +
+                ")");
+        // 期間ごとの管理に移行済みなら、このインデックスは v5 で置き換えられている
+        if (!SchemaInfo.columnExists(conn, "kabu_players", "period_id")) {
+            createIndexIfMissing(conn, "kabu_players", "idx_kabu_amount", "kabu_amount");
+        }
+
+        execute(conn, "CREATE TABLE IF NOT EXISTS kabu_prices (" +
+                "id INT PRIMARY KEY DEFAULT 1," +
+                "current_price INT NOT NULL DEFAULT 100," +
+                "price_change INT NOT NULL DEFAULT 0," +
+                "last_update_day INT NOT NULL DEFAULT 1" +
+                ")");
+
+        // 初期価格データを挿入（存在しない場合のみ）
+        execute(conn, "INSERT INTO kabu_prices (id, current_price, price_change, last_update_day) " +
+                "VALUES (1, 100, 0, 1) " +
+                "ON DUPLICATE KEY UPDATE id=id");
+    }
+
+    private void createNamesTable(Connection conn) throws SQLException {
+        execute(conn, "CREATE TABLE IF NOT EXISTS kabu_names (" +
+                "uuid BINARY(16) PRIMARY KEY," +
+                "name VARCHAR(16) NOT NULL," +
+                "updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP" +
+                ")");
+        createIndexIfMissing(conn, "kabu_names", "idx_name", "name");
+    }
+
+    private void migrateUuidColumns(Connection conn) throws SQLException {
+        // 旧形式（VARCHAR）のUUID列を移行
+        UuidMigration uuidMigration = new UuidMigration(plugin, database.getStorage(), database.getSettings().migrationChunkSize());
+        uuidMigration.migrate(conn, "kabu_players");
+        uuidMigration.migrate(conn, "kabu_names");
+    }
+
+    /**
+     * 既存の kabu_players にランキング用のインデックスがなければ作成
+     */
+    private void createAmountIndex(Connection conn) throws SQLException {
+        if (!SchemaInfo.columnExists(conn, "kabu_players", "period_id")) {
+            createIndexIfMissing(conn, "kabu_players", "idx_kabu_amount", "kabu_amount");
+        }
+    }
+
+    private void createPriceHistoryTable(Connection conn) throws SQLException {
+        execute(conn, "CREATE TABLE IF NOT EXISTS kabu_price_history (" +
+                "id BIGINT AUTO_INCREMENT PRIMARY KEY," +
+                "recorded_at TIMESTAMP(3) NOT NULL," +
+                "price INT NOT NULL," +
+                "price_change INT NOT NULL," +
+                "period_id INT NOT NULL" +
+                ")");
+        createIndexIfMissing(conn, "kabu_price_history", "idx_recorded_at", "recorded_at");
+    }
+
+    private void createTradesTable(Connection conn) throws SQLException {
+        execute(conn, "CREATE TABLE IF NOT EXISTS kabu_trades (" +
+                "id BIGINT AUTO_INCREMENT PRIMARY KEY," +
+                "uuid BINARY(16) NOT NULL," +
+                "side VARCHAR(8) NOT NULL," +
+                "amount INT NOT NULL," +
+                "price INT NOT NULL," +
+                "balance INT NOT NULL," +
+                "created_at TIMESTAMP(3) NOT NULL" +
+                ")");
+        createIndexIfMissing(conn, "kabu_trades", "idx_uuid_created_at", "uuid, created_at");
+    }
+
+    private void addProfitColumns(Connection conn) throws SQLException {
+        addColumnIfMissing(conn, "kabu_players", "cost_basis", "BIGINT NOT NULL DEFAULT 0");
+        addColumnIfMissing(conn, "kabu_players", "realized_profit", "BIGINT NOT NULL DEFAULT 0");
+        createIndexIfMissing(conn, "kabu_players", "idx_period_profit", "period_id, realized_profit");
+
+        // 移行前から持っているカブは現在のカブ価で取得したものとみなす
+        // （列を追加した直後に中断した場合も、まだ 0 の行だけを埋め直す）
+        execute(conn, "UPDATE kabu_players " +
+                "SET cost_basis = kabu_amount * (SELECT current_price FROM kabu_prices WHERE id = 1) " +
+                "WHERE period_id = (SELECT current_period FROM kabu_prices WHERE id = 1) " +
+                "AND kabu_amount > 0 AND cost_basis = 0");
+    }
+
+    private void addPeriods(Connection conn) throws SQLException {
+        addColumnIfMissing(conn, "kabu_prices", "current_period", "INT NOT NULL DEFAULT 1");
+
+        // 既存の保有数は期間1として扱う
+        // 中断してもやり直せるよう、1つの ALTER にまとめずに済んでいない変更だけを順に行う
+        addColumnIfMissing(conn, "kabu_players", "period_id", "INT NOT NULL DEFAULT 1 AFTER uuid");
+        List<String> primaryKey = SchemaInfo.primaryKey(conn, "kabu_players");
+        if (!primaryKey.equals(List.of("uuid", "period_id"))) {
+            if (!primaryKey.isEmpty()) {
+                execute(conn, "ALTER TABLE kabu_players DROP PRIMARY KEY");
+            }
+            execute(conn, "ALTER TABLE kabu_players ADD PRIMARY KEY (uuid, period_id)");
+        }
+        if (SchemaInfo.indexExists(conn, "kabu_players", "idx_kabu_amount")) {
+            execute(conn, "ALTER TABLE kabu_players DROP INDEX idx_kabu_amount");
+        }
+        createIndexIfMissing(conn, "kabu_players", "idx_period_amount", "period_id, kabu_amount");
+    }
+
+    private void addOpenPrice(Connection conn) throws SQLException {
+        addColumnIfMissing(conn, "kabu_prices", "open_price", "INT NOT NULL DEFAULT 0");
+        // 移行前の始値は分からないので、現在のカブ価を今日の始値とみなす
+        execute(conn, "UPDATE kabu_prices SET open_price = current_price WHERE open_price = 0");
+    }
+
+    private void createHeartbeatTable(Connection conn) throws SQLException {
+        execute(conn, "CREATE TABLE IF NOT EXISTS kabu_heartbeat (" +
+                "id INT PRIMARY KEY," +
+                "beat_millis BIGINT NOT NULL" +
+                ")");
+        execute(conn, "INSERT INTO kabu_heartbeat (id, beat_millis) VALUES (1, 0) ON DUPLICATE KEY UPDATE id=id");
+    }
+
+    /**
+     * 列がなければ追加
+     */
+    private void addColumnIfMissing(Connection conn, String table, String column, String definition) throws SQLException {
+        if (!SchemaInfo.columnExists(conn, table, column)) {
+            execute(conn, "ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+        }
+    }
+
+    /**
+     * インデックスがなければ作成
+     */
+    private void createIndexIfMissing(Connection conn, String table, String index, String columns) throws SQLException {
+        if (!SchemaInfo.indexExists(conn, table, index)) {
+            execute(conn, "CREATE INDEX " + index + " ON " + table + " (" + columns + ")");
+        }
+    }
+
+    private void execute(Connection conn, String sql) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.yiorno.kabu.database;
+
+import java.util.UUID;
+
+/**
+ * 期間終了時の精算の進み具合（kabu_settlements の1行分）
+ *
+ * @param period       精算する期間
+ * @param price        精算に使う終値
+ * @param lastUuid     最後に入金中の印を付けたプレイヤー（まだ誰も精算していなければ null）
+ * @param settledCount 精算した人数
+ * @param settledTotal 支払った合計金額
+ */
+public record SettlementJob(int period, int price, UUID lastUuid, int settledCount, long settledTotal) {
+}
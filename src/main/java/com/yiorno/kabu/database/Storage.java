@@ -0,0 +1,77 @@
+package com.yiorno.kabu.database;
+
+import com.yiorno.kabu.Settings;
+import com.zaxxer.hikari.HikariConfig;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * 保存先のDB
+ * 接続プールの作り方と、保存先ごとに書き方が違うSQLだけをまとめる
+ * それ以外のSQLは MySQL の書き方で共通（組み込みDBは MySQL 互換モードで動かす）
+ */
+public interface Storage {
+
+    /**
+     * 保存先の名前（config.yml の storage.type に書く値）
+     */
+    String name();
+
+    /**
+     * プラグインと同じプロセスで動く組み込みDBか
+     */
+    boolean isEmbedded();
+
+    /**
+     * 接続先を設定した接続プールの設定（プールの大きさは呼び出し側で設定する）
+     */
+    HikariConfig createPoolConfig();
+
+    /**
+     * 読み込み専用のレプリカへの接続プールの設定（レプリカを使わない場合は null）
+     */
+    default HikariConfig createReplicaPoolConfig() {
+        return null;
+    }
+
+    /**
+     * 大きなテーブルを全件読むときに、結果を一度にメモリへ載せずに少しずつ受け取るための fetch size
+     *
+     * @param rows 一度に受け取りたい件数の目安
+     */
+    default int streamingFetchSize(int rows) {
+        return rows;
+    }
+
+    /**
+     * テーブルを作り直して入れ替える移行に使う MySQL だけの構文に対応しているか
+     * （CREATE TABLE ... LIKE、複数テーブルの RENAME TABLE、二重書き込み用のトリガー）
+     */
+    default boolean supportsTableSwap() {
+        return false;
+    }
+
+    /**
+     * 自動採番の次の値を変えるSQL（ID を指定してデータを移したあとに使う）
+     */
+    String restartIdentity(String table, String column, long next);
+
+    /**
+     * 設定の storage.type で指定された保存先
+     */
+    static Storage of(Settings settings, File dataFolder) {
+        return of(settings.storageType(), settings, dataFolder);
+    }
+
+    /**
+     * 名前を指定して保存先を作成（不明な名前の場合は IllegalArgumentException を投げる）
+     */
+    static Storage of(String type, Settings settings, File dataFolder) {
+        return switch (type.toLowerCase(Locale.ROOT)) {
+            case "mysql" -> new MySqlStorage(settings.mysql(), settings.replica());
+            case "h2" -> new H2Storage(dataFolder.toPath().resolve(settings.storageFile()));
+            default -> throw new IllegalArgumentException("不明な保存先です: " + type + " (mysql か h2 を指定してください)");
+        };
+    }
+}
@@ -0,0 +1,150 @@
+package com.yiorno.kabu.database;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 売買の台帳（kabu_trades）への記録
+ * 記録は上限付きのロックフリーキューに積むだけで、バックグラウンドでまとめてDBへ書き込む
+ */
+public class TradeLedger {
+
+    /**
+     * 記録の種類
+     */
+    public enum Side {
+        BUY, SELL, EDIT, ROLLBACK, SETTLE
+    }
+
+    /**
+     * 台帳の1行
+     *
+     * @param uuid    プレイヤー
+     * @param side    種類
+     * @param amount  増減したカブの数（減った場合は負）
+     * @param price   そのときのカブ価
+     * @param balance 反映後の保有数
+     * @param time    記録時刻（エポックミリ秒）
+     */
+    public record Entry(UUID uuid, Side side, int amount, int price, int balance, long time) {
+    }
+
+    private final Plugin plugin;
+    private final DatabaseManager database;
+    private final int capacity;
+
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private long reportedDropped;
+    private BukkitTask flushTask;
+
+    public TradeLedger(Plugin plugin, DatabaseManager database) {
+        this.plugin = plugin;
+        this.database = database;
+        // キューの上限は作成時の値を使う（起動時にだけ反映）
+        this.capacity = database.getSettings().ledger().queueSize();
+    }
+
+    /**
+     * 定期書き込みタスクを開始
+     */
+    public void start() {
+        long interval = database.getSettings().ledger().flushInterval() * 20; // 秒をTickに変換
+        flushTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::flush, interval, interval);
+    }
+
+    /**
+     * 記録をキューに積む（満杯の場合は破棄して件数を数える）
+     */
+    public void record(UUID uuid, Side side, int amount, int price, int balance) {
+        if (queued.incrementAndGet() > capacity) {
+            queued.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+        queue.offer(new Entry(uuid, side, amount, price, balance, System.currentTimeMillis()));
+    }
+
+    /**
+     * キューに溜まった記録をまとめてDBへ書き込む
+     */
+    public synchronized void flush() {
+        // DBに接続できない間はキューに溜めたままにする
+        if (!database.isAvailable()) {
+            return;
+        }
+
+        int batchSize = database.getSettings().ledger().batchSize();
+        List<Entry> batch = new ArrayList<>(batchSize);
+        Entry entry;
+        while (true) {
+            while (batch.size() < batchSize && (entry = queue.poll()) != null) {
+                batch.add(entry);
+            }
+            if (batch.isEmpty()) {
+                break;
+            }
+
+            if (!database.insertTrades(batch)) {
+                // 書き込めなかった分は次回に回す（キューの順番は前後する）
+                batch.forEach(queue::offer);
+                break;
+            }
+            queued.addAndGet(-batch.size());
+            written.addAndGet(batch.size());
+            batch.clear();
+        }
+
+        long droppedNow = dropped.get();
+        if (droppedNow > reportedDropped) {
+            plugin.getLogger().warning("台帳のキューが満杯のため記録を破棄しました: " + (droppedNow - reportedDropped) +
+                    "件 (累計 " + droppedNow + "件)");
+            reportedDropped = droppedNow;
+        }
+    }
+
+    /**
+     * キューに溜まっている件数
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * キューが満杯で破棄した件数（累計）
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * DBへ書き込んだ件数（累計）
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * 定期書き込みを止め、残りをすべて書き込む
+     */
+    public void shutdown() {
+        if (flushTask != null) {
+            flushTask.cancel();
+        }
+        flush();
+        if (!queue.isEmpty()) {
+            plugin.getLogger().warning("台帳の一部をDBへ書き込めませんでした: " + queued.get() + "件");
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.yiorno.kabu.database;
+
+/**
+ * 売買の反映結果
+ *
+ * @param status         結果
+ * @param balance        反映後の保有数（成功時のみ有効）
+ * @param costBasis      反映後の取得金額の合計（成功時のみ有効）
+ * @param realizedProfit 反映後の確定損益（成功時のみ有効）
+ * @param period         反映した期間（成功時のみ有効）
+ * @param previous       売買の直前の持ち高（取り消しに使う、成功時のみ有効）
+ */
+public record TradeResult(Status status, int balance, long costBasis, long realizedProfit, int period, Position previous) {
+
+    public enum Status {
+        /** 反映に成功 */
+        SUCCESS,
+        /** 保有数が足りない */
+        INSUFFICIENT,
+        /** DBエラー */
+        FAILED
+    }
+
+    public static TradeResult success(int balance, long costBasis, long realizedProfit, int period, Position previous) {
+        return new TradeResult(Status.SUCCESS, balance, costBasis, realizedProfit, period, previous);
+    }
+
+    public static TradeResult insufficient() {
+        return new TradeResult(Status.INSUFFICIENT, 0, 0, 0, 0, Position.EMPTY);
+    }
+
+    public static TradeResult failed() {
+        return new TradeResult(Status.FAILED, 0, 0, 0, 0, Position.EMPTY);
+    }
+
+    public boolean isSuccess() {
+        return status == Status.SUCCESS;
+    }
+}
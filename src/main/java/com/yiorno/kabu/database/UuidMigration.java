@@ -0,0 +1,208 @@
+package com.yiorno.kabu.database;
+
+import com.yiorno.kabu.util.UuidUtil;
+import org.bukkit.plugin.Plugin;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * VARCHAR(36) のUUID列を BINARY(16) に移行する
+ * 新しいテーブルへ一定件数ずつコピーしてから入れ替えるため、長時間のロックが発生しない
+ * コピー中に他のサーバーが書き込んだ行は、トリガーで新しいテーブルにも書き込む（MySQL のみ）
+ */
+public class UuidMigration {
+
+    private static final String[] TRIGGER_EVENTS = {"insert", "update", "delete"};
+
+    private final Plugin plugin;
+    private final Storage storage;
+    private final int chunkSize;
+
+    /**
+     * @param storage 保存先（テーブルの入れ替えに対応していない場合は移行せずにエラーにする）
+     */
+    public UuidMigration(Plugin plugin, Storage storage, int chunkSize) {
+        this.plugin = plugin;
+        this.storage = storage;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * テーブルのUUID列が文字列なら BINARY(16) に移行
+     */
+    public void migrate(Connection conn, String table) throws SQLException {
+        if (!isVarcharUuid(conn, table)) {
+            return;
+        }
+        // 組み込みDBのテーブルは最初から BINARY(16) で作るので、ここに来るのは MySQL だけのはず
+        if (storage == null || !storage.supportsTableSwap()) {
+            throw new SQLException(table + " のUUID列が文字列ですが、この保存先ではテーブルを入れ替える移行ができません");
+        }
+
+        String newTable = table + "_new";
+        String legacyTable = table + "_varchar";
+        plugin.getLogger().info(table + " のUUID列を BINARY(16) に移行します");
+
+        // 前回中断した場合の作りかけのテーブルとトリガーは作り直す
+        dropSyncTriggers(conn, table);
+        execute(conn, "DROP TABLE IF EXISTS " + newTable);
+        execute(conn, "CREATE TABLE " + newTable + " LIKE " + table);
+        execute(conn, "ALTER TABLE " + newTable + " MODIFY uuid BINARY(16) NOT NULL");
+
+        List<String> columns = columns(conn, table);
+        long copied;
+        try {
+            createSyncTriggers(conn, table, newTable, columns);
+            copied = copyRows(conn, table, newTable, columns);
+
+            // 1文で入れ替える（旧テーブルは残しておく）
+            execute(conn, "RENAME TABLE " + table + " TO " + legacyTable + ", " + newTable + " TO " + table);
+        } finally {
+            dropSyncTriggers(conn, table);
+        }
+        plugin.getLogger().info(table + " の移行が完了しました: " + copied + "件 (旧テーブル: " + legacyTable + ")");
+    }
+
+    /**
+     * 一定件数ずつコピーする
+     * 読んだ行は共有ロックをかけたままコピーするので、その間の書き込みはコピーの後に待たされ、
+     * トリガーによる新しい値で上書きされる（先にトリガーで書かれた行はコピーで上書きしない）
+     */
+    private long copyRows(Connection conn, String table, String newTable, List<String> columns) throws SQLException {
+        String select = "SELECT " + String.join(", ", columns) + " FROM " + table +
+                " WHERE uuid > ? ORDER BY uuid LIMIT ? LOCK IN SHARE MODE";
+        int uuidIndex = columns.indexOf("uuid");
+
+        long copied = 0;
+        String lastUuid = "";
+        conn.setAutoCommit(false);
+        try {
+            while (true) {
+                List<Object[]> rows = new ArrayList<>(chunkSize);
+                try (PreparedStatement stmt = conn.prepareStatement(select)) {
+                    stmt.setString(1, lastUuid);
+                    stmt.setInt(2, chunkSize);
+                    ResultSet rs = stmt.executeQuery();
+                    while (rs.next()) {
+                        Object[] row = new Object[columns.size()];
+                        for (int i = 0; i < row.length; i++) {
+                            row[i] = rs.getObject(i + 1);
+                        }
+                        rows.add(row);
+                    }
+                }
+
+                if (rows.isEmpty()) {
+                    conn.commit();
+                    return copied;
+                }
+
+                copyChunk(conn, newTable, columns, rows);
+                conn.commit();
+                copied += rows.size();
+                lastUuid = (String) rows.get(rows.size() - 1)[uuidIndex];
+            }
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private void copyChunk(Connection conn, String newTable, List<String> columns, List<Object[]> rows) throws SQLException {
+        String placeholders = String.join(", ", columns.stream().map(column -> "?").toList());
+        String insert = "INSERT INTO " + newTable + " (" + String.join(", ", columns) + ") VALUES (" + placeholders + ") " +
+                "ON DUPLICATE KEY UPDATE uuid = uuid";
+        int uuidIndex = columns.indexOf("uuid");
+
+        try (PreparedStatement stmt = conn.prepareStatement(insert)) {
+            for (Object[] row : rows) {
+                UUID uuid;
+                try {
+                    uuid = UUID.fromString((String) row[uuidIndex]);
+                } catch (IllegalArgumentException e) {
+                    plugin.getLogger().warning("不正なUUIDを読み飛ばしました: " + row[uuidIndex]);
+                    continue;
+                }
+                for (int i = 0; i < row.length; i++) {
+                    if (i == uuidIndex) {
+                        UuidUtil.bind(stmt, i + 1, uuid);
+                    } else {
+                        stmt.setObject(i + 1, row[i]);
+                    }
+                }
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    /**
+     * 旧テーブルへの書き込みを新しいテーブルにも反映するトリガーを作成
+     * （UNHEX したUUIDのバイト順は {@link UuidUtil#toBytes} と同じ）
+     */
+    private void createSyncTriggers(Connection conn, String table, String newTable, List<String> columns) throws SQLException {
+        List<String> values = columns.stream()
+                .map(column -> column.equals("uuid") ? binaryUuid("NEW") : "NEW." + column)
+                .toList();
+        String replace = "REPLACE INTO " + newTable + " (" + String.join(", ", columns) + ") " +
+                "VALUES (" + String.join(", ", values) + ")";
+
+        execute(conn, "CREATE TRIGGER " + triggerName(table, "insert") +
+                " AFTER INSERT ON " + table + " FOR EACH ROW " + replace);
+        execute(conn, "CREATE TRIGGER " + triggerName(table, "update") +
+                " AFTER UPDATE ON " + table + " FOR EACH ROW " + replace);
+        execute(conn, "CREATE TRIGGER " + triggerName(table, "delete") +
+                " AFTER DELETE ON " + table + " FOR EACH ROW " +
+                "DELETE FROM " + newTable + " WHERE uuid = " + binaryUuid("OLD"));
+    }
+
+    private void dropSyncTriggers(Connection conn, String table) throws SQLException {
+        for (String event : TRIGGER_EVENTS) {
+            execute(conn, "DROP TRIGGER IF EXISTS " + triggerName(table, event));
+        }
+    }
+
+    private static String triggerName(String table, String event) {
+        return table + "_uuid_" + event;
+    }
+
+    private static String binaryUuid(String row) {
+        return "UNHEX(REPLACE(" + row + ".uuid, '-', ''))";
+    }
+
+    private List<String> columns(Connection conn, String table) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT * FROM " + table + " WHERE 1 = 0")) {
+            ResultSetMetaData meta = stmt.executeQuery().getMetaData();
+            for (int i = 1; i <= meta.getColumnCount(); i++) {
+                columns.add(meta.getColumnName(i));
+            }
+        }
+        return columns;
+    }
+
+    private boolean isVarcharUuid(Connection conn, String table) throws SQLException {
+        String type = SchemaInfo.columnType(conn, table, "uuid");
+        return type != null && type.toLowerCase(Locale.ROOT).contains("char");
+    }
+
+    /**
+     * DDLを実行（CREATE TRIGGER はサーバー側のプリペアドステートメントに対応していないので Statement で実行する）
+     */
+    private void execute(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate(sql);
+        }
+    }
+}
@@ -1,56 +1,90 @@
 package com.yiorno.kabu.listeners;
 
+import com.yiorno.kabu.Kabu;
 import com.yiorno.kabu.database.DatabaseManager;
+import com.yiorno.kabu.database.HoldingsCache;
+import com.yiorno.kabu.database.NameCache;
+import com.yiorno.kabu.database.PriceSnapshot;
+import com.yiorno.kabu.util.MessageTemplate;
 import com.yiorno.kabu.util.MessageUtil;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
-import org.bukkit.plugin.Plugin;
-
-import java.time.LocalDate;
 
 /**
  * プレイヤー参加イベントリスナー
  */
 public class PlayerJoinListener implements Listener {
 
-    private final Plugin plugin;
+    private static final MessageTemplate WELCOME_NEW_PERIOD = MessageTemplate.of("おかえりなさい！ 現在のカブ価は{0} MOFUです。");
+    private static final MessageTemplate WELCOME = MessageTemplate.of("おかえりなさい！ 現在のカブ価は{0} MOFUです。( 昨日との差: {1} )");
+
+    private final Kabu plugin;
     private final DatabaseManager database;
-    private final String prefix;
+    private final HoldingsCache holdings;
+    private final NameCache names;
 
-    public PlayerJoinListener(Plugin plugin, DatabaseManager database) {
+    public PlayerJoinListener(Kabu plugin, DatabaseManager database, HoldingsCache holdings, NameCache names) {
         this.plugin = plugin;
         this.database = database;
-        this.prefix = plugin.getConfig().getString("prefix", "&f[Kabu] &f");
+        this.holdings = holdings;
+        this.names = names;
+    }
+
+    /**
+     * ログイン前（非同期スレッド）に保有数をキャッシュへ先読みし、名前を記録する
+     * 他のプラグインの判定が終わった後に、許可されたログインだけを対象にする
+     * ログイン中として常駐させるのは参加時（途中で切断された場合は次回の書き込みで外れる）
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPreLogin(AsyncPlayerPreLoginEvent event) {
+        // 起動処理中の場合は起動完了時にまとめて読み込む
+        if (!plugin.isReady() || event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            return;
+        }
+        holdings.prefetch(event.getUniqueId());
+        names.update(event.getUniqueId(), event.getName());
     }
 
     @EventHandler
     public void onPlayerJoin(PlayerJoinEvent event) {
         Player player = event.getPlayer();
 
-        // カブを持っているかチェック
-        int kabu = database.getPlayerKabu(player.getUniqueId());
+        // カブを持っているかチェック（ログイン前に読み込み済みの値を使う）
+        Integer kabu = holdings.claim(player.getUniqueId());
+        if (kabu == null) {
+            if (!plugin.isReady()) {
+                return;
+            }
+            // 読み込まれていない場合（リロード直後など）は非同期で読み込む
+            Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> holdings.load(player.getUniqueId()));
+            return;
+        }
         if (kabu <= 0) {
             return;
         }
 
         // 3秒後にメッセージを送信
         Bukkit.getScheduler().runTaskLater(plugin, () -> {
-            int currentDay = LocalDate.now().getDayOfMonth();
-            int currentPrice = database.getCurrentPrice();
+            int currentDay = plugin.getRenewPrice().today().getDayOfMonth();
+            PriceSnapshot snapshot = database.getPriceSnapshot();
+            int currentPrice = snapshot.price();
 
             if (currentDay == 1 || currentDay == 16) {
                 // 1日/16日
-                String message = prefix + "おかえりなさい！ 現在のカブ価は" + currentPrice + " MOFUです。";
-                MessageUtil.sendMessage(player, message);
+                MessageUtil.sendMessage(player, prefix(), WELCOME_NEW_PERIOD, currentPrice);
             } else {
                 // 通常日
-                int priceChange = database.getPriceChange();
-                String message = prefix + "おかえりなさい！ 現在のカブ価は" + currentPrice + " MOFUです。( 昨日との差: " + priceChange + " )";
-                MessageUtil.sendMessage(player, message);
+                MessageUtil.sendMessage(player, prefix(), WELCOME, currentPrice, snapshot.change());
             }
         }, 60L); // 3秒 = 60 ticks
     }
+
+    private String prefix() {
+        return plugin.getSettings().prefix();
+    }
 }
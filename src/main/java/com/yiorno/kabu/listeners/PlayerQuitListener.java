@@ -0,0 +1,24 @@
+package com.yiorno.kabu.listeners;
+
+import com.yiorno.kabu.database.HoldingsCache;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+/**
+ * プレイヤー退出イベントリスナー
+ */
+public class PlayerQuitListener implements Listener {
+
+    private final HoldingsCache holdings;
+
+    public PlayerQuitListener(HoldingsCache holdings) {
+        this.holdings = holdings;
+    }
+
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        // 保有数をDBへ書き込み、キャッシュから解放
+        holdings.unload(event.getPlayer().getUniqueId());
+    }
+}
@@ -0,0 +1,148 @@
+package com.yiorno.kabu.util;
+
+import com.yiorno.kabu.Settings;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * コマンド処理の実行基盤
+ * DB処理は仮想スレッドで実行し、同じプレイヤーの処理は受け付けた順に1つずつ実行する
+ */
+public class KabuExecutor {
+
+    private final Plugin plugin;
+    private final ExecutorService workers;
+    private final Executor mainThread;
+    private final Semaphore permits;
+    private final int maxQueued;
+    private final AtomicInteger queued = new AtomicInteger();
+
+    // プレイヤーごとの最後に受け付けた処理
+    private final Map<UUID, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+
+    /**
+     * @param settings 同時実行数と処理待ちの上限（起動時にだけ反映）
+     */
+    public KabuExecutor(Plugin plugin, Settings.Executor settings) {
+        this(plugin, settings, task -> Bukkit.getScheduler().runTask(plugin, task));
+    }
+
+    /**
+     * メインスレッドの代わりになるExecutorを指定して作成（サーバーの外で動かす負荷試験用）
+     */
+    public KabuExecutor(Plugin plugin, Settings.Executor settings, Executor mainThread) {
+        this.plugin = plugin;
+        this.workers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("kabu-worker-", 0).factory());
+        this.mainThread = mainThread;
+        this.permits = new Semaphore(settings.maxConcurrency());
+        this.maxQueued = settings.maxQueued();
+    }
+
+    /**
+     * メインスレッドで実行するExecutor
+     */
+    public Executor mainThread() {
+        return mainThread;
+    }
+
+    /**
+     * DB処理をワーカースレッドで実行
+     */
+    public <T> CompletableFuture<T> async(Supplier<T> task) {
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            return CompletableFuture.failedFuture(new RejectedExecutionException("処理待ちが上限に達しました"));
+        }
+
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                permits.acquireUninterruptibly();
+                try {
+                    return task.get();
+                } finally {
+                    permits.release();
+                    queued.decrementAndGet();
+                }
+            }, workers);
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * メインスレッドで処理を実行
+     */
+    public <T> CompletableFuture<T> sync(Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, mainThread);
+    }
+
+    /**
+     * 同じキーの処理が前の処理の完了後に開始されるように実行
+     * 非同期処理とメインスレッド処理をまたぐ一連の流れ全体が1単位になる
+     * pipeline は必ずメインスレッドで開始する（メインスレッドから呼ぶこと、前の処理を待った場合はメインスレッドへ戻ってから開始する）
+     */
+    public <T> CompletableFuture<T> sequence(UUID key, Supplier<CompletableFuture<T>> pipeline) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<Void> done = result.handle((value, error) -> null);
+        CompletableFuture<Void> previous = tails.put(key, done);
+
+        Runnable start = () -> {
+            try {
+                pipeline.get().whenComplete((value, error) -> {
+                    if (error != null) {
+                        result.completeExceptionally(error);
+                    } else {
+                        result.complete(value);
+                    }
+                });
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        };
+        if (previous == null || previous.isDone()) {
+            start.run();
+        } else {
+            // 前の処理はワーカースレッドで終わることがあるので、そのスレッドでは続けずにメインスレッドへ戻す
+            previous.whenComplete((ignored, ignoredError) -> {
+                try {
+                    mainThread.execute(start);
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        }
+
+        done.whenComplete((ignored, ignoredError) -> tails.remove(key, done));
+        return result;
+    }
+
+    /**
+     * 実行中の処理の完了を待って停止
+     */
+    public void shutdown() {
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("終了待ちの間に完了しなかった処理があります");
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.yiorno.kabu.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 処理時間のヒストグラム
+ * バケットの上限は 1µs, 2µs, 4µs... と倍になり、記録は配列の1要素を加算するだけでオブジェクトを作らない
+ */
+public final class LatencyHistogram {
+
+    /** 上限のあるバケットの数（最後は約33秒、それより遅いものは +Inf のバケットに入る） */
+    public static final int BUCKETS = 26;
+
+    private static final long BASE_NANOS = 1_000;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS + 1);
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    /**
+     * 処理時間を記録
+     */
+    public void record(long nanos) {
+        long units = Math.max(0, nanos - 1) / BASE_NANOS;
+        int bucket = units == 0 ? 0 : 64 - Long.numberOfLeadingZeros(units);
+        counts.incrementAndGet(Math.min(bucket, BUCKETS));
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    /**
+     * バケットの上限（ナノ秒）
+     */
+    public static long upperBoundNanos(int bucket) {
+        return BASE_NANOS << bucket;
+    }
+
+    /**
+     * バケットに入った件数（bucket == BUCKETS は上限を超えたもの）
+     */
+    public long count(int bucket) {
+        return counts.get(bucket);
+    }
+
+    /**
+     * 記録した件数
+     */
+    public long count() {
+        long total = 0;
+        for (int i = 0; i <= BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * 記録した処理時間の合計（ナノ秒）
+     */
+    public long sumNanos() {
+        return sum.sum();
+    }
+
+    /**
+     * 記録した中で最も長い処理時間（ナノ秒）
+     */
+    public long maxNanos() {
+        return max.get();
+    }
+
+    /**
+     * 指定した割合の件数が収まるバケットの上限（ナノ秒、記録がなければ 0）
+     * 上限を超えたバケットに入る場合は最大値を返す
+     */
+    public long percentileNanos(double quantile) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(upperBoundNanos(i), maxNanos());
+            }
+        }
+        return maxNanos();
+    }
+}
@@ -0,0 +1,51 @@
+package com.yiorno.kabu.util;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.ComponentLike;
+import net.kyori.adventure.text.TextReplacementConfig;
+
+import java.util.regex.Pattern;
+
+/**
+ * 値を埋め込むメッセージのテンプレート
+ * 色の変換は作成時に一度だけ行い、送信時は {0}, {1}... を値に置き換えるだけにする
+ * 埋め込んだ値には置き換え前の文字の色がそのまま付く
+ */
+public final class MessageTemplate {
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{(\\d+)}");
+
+    private final Component component;
+    private final boolean hasPlaceholders;
+
+    private MessageTemplate(String template) {
+        this.component = MessageUtil.parse(template);
+        this.hasPlaceholders = PLACEHOLDER.matcher(template).find();
+    }
+
+    /**
+     * テンプレートを作成
+     * 例: "{0}カブ購入しました！"
+     */
+    public static MessageTemplate of(String template) {
+        return new MessageTemplate(template);
+    }
+
+    /**
+     * 値を埋め込んだコンポーネントを作成（値がコンポーネントの場合はそのまま埋め込む）
+     */
+    public Component render(Object... args) {
+        if (!hasPlaceholders) {
+            return component;
+        }
+
+        return component.replaceText(TextReplacementConfig.builder()
+                .match(PLACEHOLDER)
+                .replacement((match, builder) -> {
+                    int index = Integer.parseInt(match.group(1));
+                    Object value = index < args.length ? args[index] : match.group();
+                    return value instanceof ComponentLike like ? like : builder.content(String.valueOf(value));
+                })
+                .build());
+    }
+}
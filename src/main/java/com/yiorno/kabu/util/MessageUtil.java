@@ -2,51 +2,149 @@ package com.yiorno.kabu.util;
 
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.minimessage.MiniMessage;
-import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
+import org.bukkit.Bukkit;
 import org.bukkit.command.CommandSender;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 /**
  * メッセージユーティリティクラス
  * HEXカラーコードやMiniMessage形式のサポート
+ * 一度変換したメッセージはコンポーネントとして保持し、送信のたびに解析しない
  */
 public class MessageUtil {
 
     private static final MiniMessage MINI_MESSAGE = MiniMessage.miniMessage();
-    private static final LegacyComponentSerializer LEGACY_SERIALIZER = LegacyComponentSerializer.builder()
-            .character('&')
-            .hexColors()
-            .build();
+
+    // <##RRGGBB> 形式のHEXカラーと &コード
+    private static final Pattern COLOR_CODE = Pattern.compile("<##([0-9a-fA-F]{6})>|&([0-9a-fk-orA-FK-OR])");
+
+    // &コードに対応するMiniMessageのタグ（色はレガシー形式と同じく装飾をリセットする）
+    private static final Map<Character, String> LEGACY_TAGS = Map.ofEntries(
+            Map.entry('0', "<reset><black>"), Map.entry('1', "<reset><dark_blue>"),
+            Map.entry('2', "<reset><dark_green>"), Map.entry('3', "<reset><dark_aqua>"),
+            Map.entry('4', "<reset><dark_red>"), Map.entry('5', "<reset><dark_purple>"),
+            Map.entry('6', "<reset><gold>"), Map.entry('7', "<reset><gray>"),
+            Map.entry('8', "<reset><dark_gray>"), Map.entry('9', "<reset><blue>"),
+            Map.entry('a', "<reset><green>"), Map.entry('b', "<reset><aqua>"),
+            Map.entry('c', "<reset><red>"), Map.entry('d', "<reset><light_purple>"),
+            Map.entry('e', "<reset><yellow>"), Map.entry('f', "<reset><white>"),
+            Map.entry('k', "<obfuscated>"), Map.entry('l', "<bold>"), Map.entry('m', "<strikethrough>"),
+            Map.entry('n', "<underlined>"), Map.entry('o', "<italic>"), Map.entry('r', "<reset>"));
+
+    // 変換済みのメッセージ（定型文とプレフィックス用、上限を超えた分は保持しない）
+    private static final int CACHE_LIMIT = 512;
+    private static final Map<String, Component> CACHE = new ConcurrentHashMap<>();
+    private static final LongAdder CACHE_HITS = new LongAdder();
+    private static final LongAdder CACHE_MISSES = new LongAdder();
+
+    private static final MessageTemplate POSITIVE = MessageTemplate.of("&a+{0}&f");
+    private static final MessageTemplate NEGATIVE = MessageTemplate.of("&c{0}&f");
 
     /**
-     * カラーコードを変換（&コード + HEXサポート）
+     * メッセージをコンポーネントに変換（&コード + HEXサポート）
      * 例: "&f[<##00ff7f>Kabu&cβ&f] &f"
      */
-    public static String colorize(String message) {
-        if (message == null)
-            return "";
+    public static Component parse(String message) {
+        if (message == null) {
+            return Component.empty();
+        }
+
+        Matcher matcher = COLOR_CODE.matcher(message);
+        String converted = matcher.replaceAll(match -> match.group(1) != null
+                ? "<#" + match.group(1) + ">"
+                : LEGACY_TAGS.get(Character.toLowerCase(match.group(2).charAt(0))));
+        return MINI_MESSAGE.deserialize(converted);
+    }
+
+    /**
+     * 変換済みのコンポーネントを取得（初回だけ変換する）
+     */
+    public static Component component(String message) {
+        if (message == null) {
+            return Component.empty();
+        }
+
+        Component cached = CACHE.get(message);
+        if (cached != null) {
+            CACHE_HITS.increment();
+            return cached;
+        }
+        CACHE_MISSES.increment();
+        Component component = parse(message);
+        if (CACHE.size() < CACHE_LIMIT) {
+            CACHE.put(message, component);
+        }
+        return component;
+    }
 
-        // <##RRGGBB>形式をMiniMessage形式に変換
-        message = message.replaceAll("<##([0-9a-fA-F]{6})>", "<#$1>");
+    /**
+     * 変換済みのメッセージを破棄（設定のリロード時）
+     */
+    public static void clearCache() {
+        CACHE.clear();
+    }
+
+    /**
+     * 変換済みのメッセージを使えた回数（累計）
+     */
+    public static long getCacheHits() {
+        return CACHE_HITS.sum();
+    }
 
-        // MiniMessageで処理
-        Component component = MINI_MESSAGE.deserialize(message);
+    /**
+     * 変換済みのメッセージがなく変換した回数（累計）
+     */
+    public static long getCacheMisses() {
+        return CACHE_MISSES.sum();
+    }
 
-        // レガシー形式にシリアライズ（&コードのサポート）
-        return LEGACY_SERIALIZER.serialize(component);
+    /**
+     * 符号付きの色分けした数値（プラスは緑、マイナスは赤）
+     */
+    public static Component signed(long value) {
+        if (value > 0) {
+            return POSITIVE.render(value);
+        }
+        return value < 0 ? NEGATIVE.render(value) : Component.text("0");
     }
 
     /**
      * プレフィックス付きメッセージを送信
      */
     public static void sendMessage(CommandSender sender, String prefix, String message) {
-        String fullMessage = prefix + message;
-        sender.sendMessage(colorize(fullMessage));
+        sender.sendMessage(component(prefix).append(component(message)));
+    }
+
+    /**
+     * プレフィックス付きでテンプレートに値を埋め込んで送信
+     */
+    public static void sendMessage(CommandSender sender, String prefix, MessageTemplate template, Object... args) {
+        sender.sendMessage(component(prefix).append(template.render(args)));
     }
 
     /**
      * メッセージをそのまま送信
      */
     public static void sendMessage(CommandSender sender, String message) {
-        sender.sendMessage(colorize(message));
+        sender.sendMessage(component(message));
+    }
+
+    /**
+     * テンプレートに値を埋め込んでそのまま送信
+     */
+    public static void sendMessage(CommandSender sender, MessageTemplate template, Object... args) {
+        sender.sendMessage(template.render(args));
+    }
+
+    /**
+     * プレフィックス付きでテンプレートに値を埋め込んで全員に送信
+     */
+    public static void broadcast(String prefix, MessageTemplate template, Object... args) {
+        Bukkit.getServer().broadcast(component(prefix).append(template.render(args)));
     }
 }
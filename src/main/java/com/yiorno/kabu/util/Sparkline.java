@@ -0,0 +1,48 @@
+package com.yiorno.kabu.util;
+
+/**
+ * 数値の並びをブロック文字の折れ線（スパークライン）にするユーティリティ
+ */
+public final class Sparkline {
+
+    private static final char[] BLOCKS = { '▁', '▂', '▃', '▄', '▅', '▆', '▇', '█' };
+
+    private Sparkline() {
+    }
+
+    /**
+     * 最大 width 文字のスパークラインを作成
+     * 値が多い場合は区間ごとの平均にまとめる
+     */
+    public static String render(int[] values, int width) {
+        if (values.length == 0 || width <= 0) {
+            return "";
+        }
+
+        int columns = Math.min(width, values.length);
+        double[] buckets = new double[columns];
+        for (int column = 0; column < columns; column++) {
+            int from = (int) ((long) column * values.length / columns);
+            int to = (int) ((long) (column + 1) * values.length / columns);
+            long sum = 0;
+            for (int i = from; i < to; i++) {
+                sum += values[i];
+            }
+            buckets[column] = (double) sum / (to - from);
+        }
+
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (double value : buckets) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        StringBuilder line = new StringBuilder(columns);
+        for (double value : buckets) {
+            int level = max == min ? BLOCKS.length / 2 : (int) ((value - min) / (max - min) * (BLOCKS.length - 1));
+            line.append(BLOCKS[level]);
+        }
+        return line.toString();
+    }
+}
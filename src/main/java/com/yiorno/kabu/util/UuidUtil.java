@@ -0,0 +1,65 @@
+package com.yiorno.kabu.util;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+
+/**
+ * UUIDとBINARY(16)の相互変換
+ * 文字列を経由せず、UUIDの上位・下位64bitから直接変換する
+ */
+public final class UuidUtil {
+
+    private UuidUtil() {
+    }
+
+    /**
+     * UUIDを16バイトに変換
+     */
+    public static byte[] toBytes(UUID uuid) {
+        byte[] bytes = new byte[16];
+        putLong(bytes, 0, uuid.getMostSignificantBits());
+        putLong(bytes, 8, uuid.getLeastSignificantBits());
+        return bytes;
+    }
+
+    /**
+     * 16バイトをUUIDに変換
+     */
+    public static UUID fromBytes(byte[] bytes) {
+        if (bytes == null || bytes.length != 16) {
+            throw new IllegalArgumentException("UUIDは16バイトである必要があります");
+        }
+        return new UUID(getLong(bytes, 0), getLong(bytes, 8));
+    }
+
+    /**
+     * PreparedStatementにUUIDを設定
+     */
+    public static void bind(PreparedStatement stmt, int index, UUID uuid) throws SQLException {
+        stmt.setBytes(index, toBytes(uuid));
+    }
+
+    /**
+     * ResultSetからUUIDを読み込む
+     */
+    public static UUID read(ResultSet rs, String column) throws SQLException {
+        return fromBytes(rs.getBytes(column));
+    }
+
+    private static void putLong(byte[] bytes, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
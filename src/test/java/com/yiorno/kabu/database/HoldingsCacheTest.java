@@ -0,0 +1,85 @@
+package com.yiorno.kabu.database;
+
+import org.bukkit.plugin.Plugin;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * キャッシュでまとめた増減を書き込んだ後も、取得金額がキャッシュとDBで一致することを確かめる
+ */
+class HoldingsCacheTest {
+
+    private static final UUID PLAYER = new UUID(1, 2);
+
+    private DatabaseManager database;
+    private HoldingsCache holdings;
+
+    @BeforeEach
+    void open() throws SQLException {
+        Plugin plugin = TestDatabase.plugin();
+        database = TestDatabase.migrated(plugin);
+        holdings = new HoldingsCache(plugin, database, new Leaderboard());
+
+        // 100 で 1000カブ買った状態から始める
+        assertTrue(database.executeTrade(PLAYER, HoldingDelta.NONE, 1000, 100).isSuccess());
+    }
+
+    @AfterEach
+    void close() {
+        database.close();
+    }
+
+    @Test
+    void offsettingEditsKeepCostBasisInSync() {
+        // 増やしてから同じ数だけ減らすと保有数の増減は0だが、取得金額は減っている
+        holdings.add(PLAYER, 500);
+        holdings.add(PLAYER, -500);
+        Position cached = holdings.getPosition(PLAYER);
+
+        holdings.flush();
+
+        assertEquals(1000, cached.amount());
+        assertEquals(cached, database.getPosition(PLAYER));
+    }
+
+    @Test
+    void tradeCarriesPendingCostBasis() {
+        holdings.add(PLAYER, -400);
+        Position cached = holdings.getPosition(PLAYER);
+
+        // 売買と一緒に持ち越した増減を反映する
+        assertTrue(holdings.trade(PLAYER, 100, 100).isSuccess());
+
+        assertEquals(new Position(700, cached.costBasis() + 10_000, 0), database.getPosition(PLAYER));
+        assertEquals(database.getPosition(PLAYER), holdings.getPosition(PLAYER));
+    }
+
+    @Test
+    void unclaimedPrefetchIsEvictedOnFlush() {
+        // ログイン前に先読みしたが参加まで進まなかった場合
+        holdings.prefetch(PLAYER);
+        assertEquals(Integer.valueOf(1000), holdings.getCached(PLAYER));
+
+        holdings.flush();
+
+        assertNull(holdings.getCached(PLAYER));
+    }
+
+    @Test
+    void claimedPrefetchStaysCached() {
+        holdings.prefetch(PLAYER);
+        assertEquals(Integer.valueOf(1000), holdings.claim(PLAYER));
+
+        holdings.flush();
+
+        assertEquals(Integer.valueOf(1000), holdings.getCached(PLAYER));
+    }
+}
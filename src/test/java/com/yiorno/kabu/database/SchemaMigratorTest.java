@@ -0,0 +1,137 @@
+package com.yiorno.kabu.database;
+
+import com.yiorno.kabu.util.UuidUtil;
+import org.bukkit.plugin.Plugin;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 移行を途中で中断したあとや、同じ移行をもう一度実行したときにも失敗しないことを確かめる
+ * （H2 の MySQL互換モードで、すべての移行を最初から順に実行する）
+ */
+class SchemaMigratorTest {
+
+    private Plugin plugin;
+    private DatabaseManager database;
+
+    @BeforeEach
+    void open() {
+        plugin = TestDatabase.plugin();
+        database = TestDatabase.open(plugin);
+    }
+
+    @AfterEach
+    void close() {
+        database.close();
+    }
+
+    @Test
+    void migrateTwice() throws SQLException {
+        SchemaMigrator migrator = new SchemaMigrator(plugin, database);
+        migrator.migrate();
+        new SchemaMigrator(plugin, database).migrate();
+
+        try (Connection conn = database.getConnection()) {
+            assertEquals(migrator.latestVersion(), queryLong(conn, "SELECT MAX(version) FROM kabu_schema_version"));
+            assertEquals(migrator.latestVersion(), queryLong(conn, "SELECT COUNT(*) FROM kabu_schema_version"));
+            assertLatestSchema(conn);
+        }
+    }
+
+    @Test
+    void rerunStepsWhoseVersionWasNotRecorded() throws SQLException {
+        new SchemaMigrator(plugin, database).migrate();
+
+        // DDL の後、バージョンを記録する前に止まった場合と同じ状態にする
+        try (Connection conn = database.getConnection()) {
+            execute(conn, "DELETE FROM kabu_schema_version");
+        }
+        SchemaMigrator migrator = new SchemaMigrator(plugin, database);
+        migrator.migrate();
+
+        try (Connection conn = database.getConnection()) {
+            assertEquals(migrator.latestVersion(), queryLong(conn, "SELECT COUNT(*) FROM kabu_schema_version"));
+            assertLatestSchema(conn);
+        }
+    }
+
+    @Test
+    void rerunProfitColumnsKeepsCostBasis() throws SQLException {
+        new SchemaMigrator(plugin, database).migrate();
+
+        UUID uuid = new UUID(1, 2);
+        try (Connection conn = database.getConnection()) {
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO kabu_players (uuid, period_id, kabu_amount, cost_basis) VALUES (?, 1, 10, 500)")) {
+                UuidUtil.bind(stmt, 1, uuid);
+                stmt.executeUpdate();
+            }
+            execute(conn, "DELETE FROM kabu_schema_version WHERE version = 9");
+        }
+        new SchemaMigrator(plugin, database).migrate();
+
+        try (Connection conn = database.getConnection()) {
+            assertEquals(500, queryLong(conn, "SELECT cost_basis FROM kabu_players"));
+        }
+    }
+
+    @Test
+    void upgradeFromV11BackfillsOpenPrice() throws SQLException {
+        new SchemaMigrator(plugin, database).migrate();
+
+        // 始値の列がなかった v11 のDBに、その時点のカブ価が入っている状態にする
+        try (Connection conn = database.getConnection()) {
+            execute(conn, "ALTER TABLE kabu_prices DROP COLUMN open_price");
+            execute(conn, "UPDATE kabu_prices SET current_price = 150 WHERE id = 1");
+            execute(conn, "DELETE FROM kabu_schema_version WHERE version >= 12");
+        }
+        new SchemaMigrator(plugin, database).migrate();
+        database.reloadPriceSnapshot();
+
+        try (Connection conn = database.getConnection()) {
+            assertEquals(150, queryLong(conn, "SELECT open_price FROM kabu_prices WHERE id = 1"));
+        }
+        assertEquals(150, database.getPriceSnapshot().openPrice());
+    }
+
+    private static void assertLatestSchema(Connection conn) throws SQLException {
+        assertEquals(List.of("uuid", "period_id"), SchemaInfo.primaryKey(conn, "kabu_players"));
+        assertTrue(SchemaInfo.columnExists(conn, "kabu_players", "cost_basis"));
+        assertTrue(SchemaInfo.columnExists(conn, "kabu_players", "realized_profit"));
+        assertTrue(SchemaInfo.columnExists(conn, "kabu_players", "settlement_state"));
+        assertTrue(SchemaInfo.columnExists(conn, "kabu_prices", "current_period"));
+        assertTrue(SchemaInfo.columnExists(conn, "kabu_prices", "last_update_date"));
+        assertTrue(SchemaInfo.columnExists(conn, "kabu_prices", "open_price"));
+        assertTrue(SchemaInfo.columnExists(conn, "kabu_heartbeat", "beat_millis"));
+        assertTrue(SchemaInfo.indexExists(conn, "kabu_players", "idx_period_amount"));
+        assertTrue(SchemaInfo.indexExists(conn, "kabu_players", "idx_period_profit"));
+        assertFalse(SchemaInfo.indexExists(conn, "kabu_players", "idx_kabu_amount"));
+        assertEquals(1, queryLong(conn, "SELECT COUNT(*) FROM kabu_prices"));
+    }
+
+    private static long queryLong(Connection conn, String sql) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            ResultSet rs = stmt.executeQuery();
+            assertTrue(rs.next());
+            return rs.getLong(1);
+        }
+    }
+
+    private static void execute(Connection conn, String sql) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.executeUpdate();
+        }
+    }
+}
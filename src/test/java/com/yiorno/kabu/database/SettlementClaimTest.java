@@ -0,0 +1,84 @@
+package com.yiorno.kabu.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 精算で入金中の印を付けた行が、再開時に二重に読み込まれないことを確かめる
+ */
+class SettlementClaimTest {
+
+    private static final UUID FIRST = new UUID(1, 1);
+    private static final UUID SECOND = new UUID(1, 2);
+    private static final UUID THIRD = new UUID(1, 3);
+
+    private DatabaseManager database;
+
+    @BeforeEach
+    void open() throws SQLException {
+        database = TestDatabase.migrated();
+
+        for (UUID uuid : List.of(FIRST, SECOND, THIRD)) {
+            assertTrue(database.executeTrade(uuid, HoldingDelta.NONE, 100, 100).isSuccess());
+        }
+        // 期間1を終値 120 で精算する
+        assertTrue(database.startNewPeriod(120, 0, LocalDate.now(), 120));
+    }
+
+    @AfterEach
+    void close() {
+        database.close();
+    }
+
+    @Test
+    void claimedRowsAreNotClaimedAgain() {
+        Map<UUID, Integer> page = database.claimSettlementPage(1, null, 2);
+        assertEquals(List.of(FIRST, SECOND), List.copyOf(page.keySet()));
+
+        // 入金の途中で止まって最初から読み直しても、印を付けた行は読み込まない
+        assertEquals(List.of(THIRD), List.copyOf(database.claimSettlementPage(1, null, 10).keySet()));
+        assertEquals(List.of(FIRST, SECOND, THIRD), List.copyOf(database.getUnconfirmedSettlements(1).keySet()));
+    }
+
+    @Test
+    void paidRowsStayPaidAndRefusedRowsAreRetried() {
+        database.claimSettlementPage(1, null, 10);
+        assertTrue(database.saveSettlementProgress(1, List.of(FIRST), List.of(SECOND), 1, 12_000));
+        assertTrue(database.releaseSettlement(1, List.of(THIRD)));
+
+        assertEquals(List.of(SECOND, THIRD), List.copyOf(database.claimSettlementPage(1, null, 10).keySet()));
+        SettlementJob job = database.getPendingSettlement();
+        assertEquals(1, job.settledCount());
+        assertEquals(12_000, job.settledTotal());
+    }
+
+    @Test
+    void resolvedRowsAreConfirmedOrSettledAgain() {
+        database.claimSettlementPage(1, null, 10);
+        database.completeSettlement(1);
+
+        // 管理者が入金を確かめた行は入金済みに、入金されていなかった行は未精算に戻す
+        Map<UUID, Integer> unconfirmed = database.getUnconfirmedSettlements(1);
+        assertEquals(1, database.resolveUnconfirmedSettlements(1, Map.of(FIRST, unconfirmed.get(FIRST)), true));
+        assertEquals(2, database.resolveUnconfirmedSettlements(1, Map.of(SECOND, 100, THIRD, 100), false));
+        // 既に片付けた行は数えない
+        assertEquals(0, database.resolveUnconfirmedSettlements(1, Map.of(FIRST, 100), false));
+
+        assertTrue(database.getUnconfirmedSettlements(1).isEmpty());
+        SettlementJob job = database.getPendingSettlement();
+        assertEquals(1, job.period());
+        assertEquals(1, job.settledCount());
+        assertEquals(12_000, job.settledTotal());
+        assertEquals(List.of(SECOND, THIRD), List.copyOf(database.claimSettlementPage(1, null, 10).keySet()));
+    }
+}
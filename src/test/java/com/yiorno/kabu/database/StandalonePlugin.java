@@ -0,0 +1,68 @@
+package com.yiorno.kabu.database;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.Plugin;
+
+import java.io.File;
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * サーバーの外（テスト・ベンチマーク・移行ツール）で DatabaseManager などに渡すプラグイン
+ * getLogger・getConfig・getDataFolder だけを持ち、それ以外は既定値を返す（isEnabled が false なので定期処理は始まらない）
+ */
+public final class StandalonePlugin {
+
+    private StandalonePlugin() {
+    }
+
+    /**
+     * 空の設定を持つプラグイン
+     */
+    public static Plugin create(Logger logger) {
+        return create(logger, new YamlConfiguration(), null);
+    }
+
+    /**
+     * 指定した設定とフォルダを返すプラグイン
+     */
+    public static Plugin create(Logger logger, YamlConfiguration config, File dataFolder) {
+        return stub(Plugin.class, Map.of(
+                "getLogger", args -> logger,
+                "getConfig", args -> config,
+                "getDataFolder", args -> dataFolder,
+                "getName", args -> "Kabu",
+                "toString", args -> "Kabu"));
+    }
+
+    /**
+     * 指定したメソッドだけ応答を決めたインターフェースの代用品（プレイヤーや Vault などにも使う）
+     * それ以外のメソッドは既定値（null・0・false）を返し、equals と hashCode は同一性で比べる
+     */
+    public static <T> T stub(Class<T> type, Map<String, Function<Object[], Object>> methods) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                (proxy, method, args) -> {
+                    Function<Object[], Object> answer = methods.get(method.getName());
+                    if (answer != null) {
+                        return answer.apply(args);
+                    }
+                    return switch (method.getName()) {
+                        case "toString" -> type.getSimpleName();
+                        case "hashCode" -> System.identityHashCode(proxy);
+                        case "equals" -> proxy == args[0];
+                        default -> defaultValue(method.getReturnType());
+                    };
+                }));
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        }
+        // プリミティブ型の既定値（0 や false）を要素数1の配列から取り出す
+        return Array.get(Array.newInstance(type, 1), 0);
+    }
+}
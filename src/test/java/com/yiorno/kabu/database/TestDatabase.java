@@ -0,0 +1,57 @@
+package com.yiorno.kabu.database;
+
+import com.yiorno.kabu.Settings;
+import com.zaxxer.hikari.HikariConfig;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.Plugin;
+
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * テスト用のメモリ上の組み込みDB（H2 の MySQL互換モード、テストごとに別のDB）
+ */
+final class TestDatabase {
+
+    private TestDatabase() {
+    }
+
+    /**
+     * テスト用のプラグイン（警告より軽いログは出さない）
+     */
+    static Plugin plugin() {
+        Logger logger = Logger.getLogger("KabuTest");
+        logger.setLevel(Level.WARNING);
+        return StandalonePlugin.create(logger);
+    }
+
+    /**
+     * テスト用のプラグインで接続プールを作成し、スキーマを最新にする
+     */
+    static DatabaseManager migrated() throws SQLException {
+        return migrated(plugin());
+    }
+
+    /**
+     * 接続プールだけを作成する（テーブルは作らない）
+     */
+    static DatabaseManager open(Plugin plugin) {
+        Settings settings = Settings.from(new YamlConfiguration());
+        DatabaseManager database = new DatabaseManager(plugin, () -> settings);
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl("jdbc:h2:mem:test" + System.nanoTime() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+        database.initialize(config);
+        return database;
+    }
+
+    /**
+     * 接続プールを作成し、スキーマを最新にする
+     */
+    static DatabaseManager migrated(Plugin plugin) throws SQLException {
+        DatabaseManager database = open(plugin);
+        new SchemaMigrator(plugin, database).migrate();
+        database.reloadPriceSnapshot();
+        return database;
+    }
+}
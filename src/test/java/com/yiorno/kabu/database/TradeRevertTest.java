@@ -0,0 +1,65 @@
+package com.yiorno.kabu.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Vaultの処理に失敗した売買の取り消しで、持ち高が売買の直前の値にそのまま戻ることを確かめる
+ */
+class TradeRevertTest {
+
+    private static final UUID PLAYER = new UUID(1, 2);
+
+    private DatabaseManager database;
+
+    @BeforeEach
+    void open() throws SQLException {
+        database = TestDatabase.migrated();
+
+        // 100 で 1000カブ買った状態から始める
+        assertTrue(database.executeTrade(PLAYER, HoldingDelta.NONE, 1000, 100).isSuccess());
+    }
+
+    @AfterEach
+    void close() {
+        database.close();
+    }
+
+    @Test
+    void revertSellUndoesRealizedProfit() {
+        TradeResult sell = database.executeTrade(PLAYER, HoldingDelta.NONE, -500, 150);
+        assertEquals(25_000, sell.realizedProfit());
+
+        TradeResult reverted = database.revertTrade(PLAYER, sell);
+
+        assertTrue(reverted.isSuccess());
+        assertEquals(new Position(1000, 100_000, 0), database.getPosition(PLAYER));
+    }
+
+    @Test
+    void revertBuyKeepsAverageCost() {
+        TradeResult buy = database.executeTrade(PLAYER, HoldingDelta.NONE, 500, 200);
+
+        TradeResult reverted = database.revertTrade(PLAYER, buy);
+
+        assertTrue(reverted.isSuccess());
+        assertEquals(new Position(1000, 100_000, 0), database.getPosition(PLAYER));
+    }
+
+    @Test
+    void revertKeepsCarriedChanges() {
+        // 売買と一緒に反映したキャッシュからの持ち越し分は取り消さない
+        TradeResult buy = database.executeTrade(PLAYER, new HoldingDelta(300, 0), 500, 200);
+
+        database.revertTrade(PLAYER, buy);
+
+        assertEquals(new Position(1300, 100_000, 0), database.getPosition(PLAYER));
+    }
+}
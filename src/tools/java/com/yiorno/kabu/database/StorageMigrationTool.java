@@ -0,0 +1,198 @@
+package com.yiorno.kabu.database;
+
+import com.yiorno.kabu.Settings;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.Plugin;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * 保存先の移行ツール
+ * サーバーを止めた状態で、config.yml の接続設定を使って from の保存先から to の保存先へ全データをコピーする
+ * どちらの保存先も先に最新のスキーマへ移行してから、テーブルごとに同じ列の値をそのまま書き込む
+ *
+ * 実行例: mvn -P tools test-compile exec:exec@migrate-storage -Dmigrate.args="config=plugins/MofuKabu/config.yml from=mysql to=h2"
+ */
+public final class StorageMigrationTool {
+
+    /**
+     * コピーするテーブル（自動採番の列があるものは列名も持つ）
+     */
+    private record Table(String name, String identity) {
+    }
+
+    private static final List<Table> TABLES = List.of(
+            new Table("kabu_prices", null),
+            new Table("kabu_players", null),
+            new Table("kabu_names", null),
+            new Table("kabu_price_history", "id"),
+            new Table("kabu_trades", "id"),
+            new Table("kabu_settlements", null));
+
+    private final File configFile;
+    private final String from;
+    private final String to;
+    private final boolean force;
+    private final int batchSize;
+
+    private StorageMigrationTool(Map<String, String> options) {
+        this.configFile = new File(options.getOrDefault("config", "plugins/MofuKabu/config.yml"));
+        this.from = options.getOrDefault("from", "mysql");
+        this.to = options.getOrDefault("to", "h2");
+        this.force = Boolean.parseBoolean(options.getOrDefault("force", "false"));
+        this.batchSize = Integer.parseInt(options.getOrDefault("batch-size", "1000"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator > 0) {
+                options.put(arg.substring(0, separator), arg.substring(separator + 1));
+            }
+        }
+        new StorageMigrationTool(options).run();
+    }
+
+    private void run() throws SQLException {
+        if (!configFile.isFile()) {
+            throw new IllegalArgumentException("設定ファイルが見つかりません: " + configFile.getAbsolutePath());
+        }
+        if (from.equalsIgnoreCase(to)) {
+            throw new IllegalArgumentException("コピー元とコピー先に同じ保存先は指定できません: " + from);
+        }
+
+        YamlConfiguration config = YamlConfiguration.loadConfiguration(configFile);
+        File dataFolder = configFile.getAbsoluteFile().getParentFile();
+        Plugin plugin = StandalonePlugin.create(Logger.getLogger("KabuMigration"), config, dataFolder);
+        Settings settings = Settings.from(config);
+
+        DatabaseManager source = open(Storage.of(from, settings, dataFolder), plugin, settings);
+        DatabaseManager target = open(Storage.of(to, settings, dataFolder), plugin, settings);
+        try (Connection in = source.getConnection();
+                Connection out = target.getConnection()) {
+
+            if (!force && hasData(out)) {
+                throw new IllegalStateException("コピー先に既にデータがあります（上書きする場合は force=true を指定してください）");
+            }
+
+            System.out.println(from + " から " + to + " へコピーします");
+            long total = System.currentTimeMillis();
+            for (Table table : TABLES) {
+                long start = System.currentTimeMillis();
+                long rows = copy(in, out, table, source.getStorage(), target.getStorage());
+                System.out.println("  " + table.name() + ": " + rows + "件 (" + (System.currentTimeMillis() - start) + "ms)");
+            }
+            System.out.println("コピーが完了しました (合計 " + (System.currentTimeMillis() - total) + "ms)");
+            System.out.println("config.yml の storage.type を " + to + " に変えてからサーバーを起動してください");
+        } finally {
+            source.close();
+            target.close();
+        }
+    }
+
+    /**
+     * 接続プールを作成し、スキーマを最新にする
+     */
+    private static DatabaseManager open(Storage storage, Plugin plugin, Settings settings) throws SQLException {
+        DatabaseManager database = new DatabaseManager(plugin, () -> settings);
+        database.initialize(storage, settings.pool());
+        new SchemaMigrator(plugin, database).migrate();
+        return database;
+    }
+
+    /**
+     * 保有数・プレイヤー名・履歴・台帳のどれかにデータがあるか（価格は移行で1行作られるので見ない）
+     */
+    private static boolean hasData(Connection conn) throws SQLException {
+        for (Table table : TABLES) {
+            if (table.name().equals("kabu_prices")) {
+                continue;
+            }
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) FROM " + table.name())) {
+                ResultSet rs = stmt.executeQuery();
+                if (rs.next() && rs.getLong(1) > 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 1つのテーブルを丸ごとコピー（コピー先の既存の行は消してから書き込む）
+     * 削除から書き込みまでを1つのトランザクションで行い、途中で失敗した場合はコピー先を元の状態に戻す
+     */
+    private long copy(Connection in, Connection out, Table table, Storage source, Storage target) throws SQLException {
+        // 自動採番の変更は DDL で、実行するとトランザクションがコミットされるので、書き込みを始める前に済ませておく
+        // （ID を指定して書き込むので、次の自動採番がコピー元の最大値の後ろから始まるようにする）
+        if (table.identity() != null) {
+            long maxIdentity;
+            try (PreparedStatement stmt = in.prepareStatement(
+                    "SELECT COALESCE(MAX(" + table.identity() + "), 0) FROM " + table.name())) {
+                ResultSet rs = stmt.executeQuery();
+                maxIdentity = rs.next() ? rs.getLong(1) : 0;
+            }
+            try (PreparedStatement stmt = out.prepareStatement(
+                    target.restartIdentity(table.name(), table.identity(), maxIdentity + 1))) {
+                stmt.executeUpdate();
+            }
+        }
+
+        out.setAutoCommit(false);
+        try (PreparedStatement select = in.prepareStatement("SELECT * FROM " + table.name(),
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            // 全件をメモリに載せずに少しずつ読む
+            select.setFetchSize(source.streamingFetchSize(batchSize));
+
+            try (PreparedStatement delete = out.prepareStatement("DELETE FROM " + table.name())) {
+                delete.executeUpdate();
+            }
+
+            long rows = 0;
+            try (ResultSet rs = select.executeQuery()) {
+                ResultSetMetaData meta = rs.getMetaData();
+                List<String> columns = new ArrayList<>();
+                for (int i = 1; i <= meta.getColumnCount(); i++) {
+                    columns.add(meta.getColumnLabel(i));
+                }
+
+                String insert = "INSERT INTO " + table.name() + " (" + String.join(", ", columns) + ") VALUES (" +
+                        String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+                try (PreparedStatement stmt = out.prepareStatement(insert)) {
+                    while (rs.next()) {
+                        for (int i = 1; i <= columns.size(); i++) {
+                            stmt.setObject(i, rs.getObject(i));
+                        }
+                        stmt.addBatch();
+                        rows++;
+
+                        // 送信はバッチごとに行うが、コミットは最後に1回だけ
+                        if (rows % batchSize == 0) {
+                            stmt.executeBatch();
+                        }
+                    }
+                    stmt.executeBatch();
+                }
+            }
+            out.commit();
+            return rows;
+        } catch (SQLException e) {
+            out.rollback();
+            throw e;
+        } finally {
+            out.setAutoCommit(true);
+        }
+    }
+}